@@ -0,0 +1,62 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+// Paints the visible rows into a single Canvas instead of keeping nodes for them. The canvas covers
+// the rows being drawn and moves with them, so scrolling paints a window's worth of text again and the
+// scene graph stays at one node however much text is on screen.
+//
+// Each character is painted at the x the layout gave it rather than as one string per row: the layout
+// rounds every width to whole pixels, and the cursor and the selection boxes have to line up with it.
+public class CanvasRenderer extends TextRenderer {
+
+    private final Canvas canvas = new Canvas();
+
+    public CanvasRenderer(RenderEngine engine, TextBuffer list) {
+        super(engine, list);
+    }
+
+    @Override
+    public Node getNode() {
+        return canvas;
+    }
+
+    @Override
+    public void draw(int firstRow, int lastRow) {
+        int top = engine.getRowY(firstRow);
+        int width = engine.getWindowWidth();
+        int height = Math.max(0, lastRow - firstRow + 1) * engine.getFontHeight();
+
+        // resizing makes a new texture, so it only happens when the window or the font changed
+        if(canvas.getWidth() != width)
+            canvas.setWidth(width);
+        if(canvas.getHeight() != height)
+            canvas.setHeight(height);
+        canvas.setLayoutY(top);
+
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        // transparent, so the selection boxes behind it show through
+        g.clearRect(0, 0, width, height);
+        g.setFont(engine.getFont());
+        g.setFill(Color.BLACK);
+        g.setTextBaseline(VPos.TOP);
+
+        for(int row = firstRow; row <= lastRow; row++) {
+            int end = engine.getRowEnd(row);
+            int y = engine.getRowY(row) - top;
+            int x = engine.leftMargin;
+
+            for(int i = engine.getFirstCharOfTheRow(row); i < end; i++) {
+                char c = list.charAt(i);
+                if(c != ' ' && c != '\n')
+                    g.fillText(glyphText(c), x, y);
+                x += engine.charWidth(c);
+            }
+        }
+    }
+
+}
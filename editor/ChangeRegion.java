@@ -0,0 +1,32 @@
+package editor;
+
+// The part of a TextBuffer edited since the region was last cleared: [start, oldEnd) of the text back
+// then became [start, oldEnd + delta) of the current one, and everything after it is only shifted by
+// delta. Any number of edits fold into one region, which is all an incremental layout needs.
+public class ChangeRegion {
+
+    boolean changed;
+    int start;
+    int oldEnd;
+    int delta;
+
+    // grow the region so that it also covers [from, to) of the current text
+    void mark(int from, int to, int delta) {
+        if(!changed) {
+            changed = true;
+            start = from;
+            oldEnd = to;
+            this.delta = 0;
+        } else {
+            start = Math.min(start, from);
+            if(to > oldEnd + this.delta)
+                oldEnd = to - this.delta;
+        }
+        this.delta += delta;
+    }
+
+    public void clear() {
+        changed = false;
+    }
+
+}
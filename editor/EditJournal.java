@@ -0,0 +1,384 @@
+package editor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// An append-only log of every insert and delete made since the file was last saved, kept next to the
+// file as .<name>.journal. Edits are queued on the FX thread (typing at the same spot grows one record)
+// and a background thread writes and fsyncs them in batches, so after a crash the editor gets the
+// unsaved text back by replaying the journal on top of the file instead of relying on full saves.
+//
+// Each edit has a sequence number. Markers record which version of the file the edits apply to: OPEN
+// when the journal was started, SAVED once a save holding every edit up to a sequence number landed.
+// Recovery replays the edits after the last marker matching the file on disk. Quitting the editor
+// drops the edits that were not saved and deletes the journal with them, so only a crash leaves one.
+public class EditJournal implements EditListener {
+
+    private static final long BATCH_MILLIS = 200;
+
+    private static final byte OPEN = 'O';
+    private static final byte SAVED = 'S';
+    private static final byte INSERT = 'I';
+    private static final byte DELETE = 'D';
+
+    private final File file;
+    private final File target;
+
+    private final Object lock = new Object();
+    // records waiting for the writer thread; the last one may still grow while typing goes on
+    private List<Record> pending = new ArrayList<>();
+    private boolean sealed = true;
+    private long sequence;
+    // the edits replayed by open(), the document holds text that is not in the file when there are any
+    private final int recovered;
+
+    private final Thread writer;
+    private boolean closed;
+    private FileOutputStream fileStream;
+    private DataOutputStream out;
+
+    private static class Record {
+        byte type;
+        long sequence;
+        int position;
+        int length;
+        StringBuilder chars;
+        long fileSize;
+        long fileModified;
+
+        Record(byte type, long sequence) {
+            this.type = type;
+            this.sequence = sequence;
+        }
+    }
+
+    private EditJournal(File target, File file, long sequence, int recovered, boolean fresh) throws IOException {
+        this.target = target;
+        this.file = file;
+        this.sequence = sequence;
+        this.recovered = recovered;
+
+        fileStream = new FileOutputStream(file, !fresh);
+        out = new DataOutputStream(new BufferedOutputStream(fileStream));
+        if(fresh) {
+            Record open = marker(OPEN, sequence, target);
+            write(open);
+            out.flush();
+            fileStream.getChannel().force(false);
+        }
+
+        writer = new Thread(this::writeLoop, "edit-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Replay the journal of target onto text if there is one that belongs to the file on disk, then
+    // start journaling the edits made from now on. Returns null if the journal cannot be written
+    public static EditJournal open(File target, TextBuffer text) {
+        File file = new File(target.getAbsoluteFile().getParentFile(), "." + target.getName() + ".journal");
+
+        long sequence = 0;
+        int replayed = 0;
+        boolean fresh = true;
+        if(file.exists() && file.lastModified() >= target.lastModified()) {
+            List<Record> records = read(file);
+            int base = lastMatchingMarker(records, target);
+            if(base != -1) {
+                long from = records.get(base).sequence;
+                try {
+                    for(Record r : records) {
+                        if(r.sequence > from && (r.type == INSERT || r.type == DELETE)) {
+                            apply(r, text);
+                            replayed++;
+                        }
+                        sequence = Math.max(sequence, r.sequence);
+                    }
+                } catch (IndexOutOfBoundsException e) {
+                    System.out.println("The edit journal does not fit " + target + ", stopped replaying it: " + e);
+                }
+                fresh = false;
+                if(replayed > 0)
+                    System.out.println("Recovered " + replayed + " unsaved edits from " + file);
+            }
+        }
+
+        try {
+            return new EditJournal(target, file, sequence, replayed, fresh);
+        } catch (IOException e) {
+            System.out.println("Unable to start the edit journal: " + e);
+            return null;
+        }
+    }
+
+    @Override
+    public void inserted(int position, char c) {
+        synchronized (lock) {
+            Record last = sealed ? null : pending.get(pending.size() - 1);
+            if(last != null && last.type == INSERT && last.position + last.length == position) {
+                last.chars.append(c);
+                last.length++;
+                return;
+            }
+
+            Record r = new Record(INSERT, ++sequence);
+            r.position = position;
+            r.length = 1;
+            r.chars = new StringBuilder().append(c);
+            add(r);
+        }
+    }
+
+    @Override
+    public void inserted(int position, CharSequence chars) {
+        synchronized (lock) {
+            Record last = sealed ? null : pending.get(pending.size() - 1);
+            if(last != null && last.type == INSERT && last.position + last.length == position) {
+                last.chars.append(chars);
+                last.length += chars.length();
+                return;
+            }
+
+            Record r = new Record(INSERT, ++sequence);
+            r.position = position;
+            r.length = chars.length();
+            r.chars = new StringBuilder(chars);
+            add(r);
+        }
+    }
+
+    @Override
+    public void deleted(int position, int length) {
+        synchronized (lock) {
+            Record last = sealed ? null : pending.get(pending.size() - 1);
+            if(last != null && last.type == DELETE && position + length == last.position) {
+                // backspace held down: each delete ends where the previous one started
+                last.position = position;
+                last.length += length;
+                return;
+            }
+
+            Record r = new Record(DELETE, ++sequence);
+            r.position = position;
+            r.length = length;
+            add(r);
+        }
+    }
+
+    // the sequence number of the last edit, to be passed to saved() once a snapshot taken now is on disk
+    public long checkpoint() {
+        synchronized (lock) {
+            sealed = true;
+            return sequence;
+        }
+    }
+
+    // the file now holds every edit up to checkpoint, so the journal only needs the ones after it
+    public void saved(long checkpoint) {
+        synchronized (lock) {
+            add(marker(SAVED, checkpoint, target));
+        }
+    }
+
+    public int getRecovered() {
+        return recovered;
+    }
+
+    // Quitting on purpose: the edits that were not saved are thrown away, so they must not come back the
+    // next time the file is opened. The writer is stopped first so nothing is written after the delete
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        file.delete();
+    }
+
+    private void add(Record r) {
+        pending.add(r);
+        // markers are never extended, edits can be until the writer takes them
+        sealed = r.type != INSERT && r.type != DELETE;
+    }
+
+    private void writeLoop() {
+        while(true) {
+            List<Record> batch;
+            boolean last;
+            synchronized (lock) {
+                // close() wakes the thread up early to write what is pending one last time
+                if(!closed) {
+                    try {
+                        lock.wait(BATCH_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                sealed = true;
+                last = closed;
+            }
+
+            try {
+                for(Record r : batch) {
+                    write(r);
+                    if(r.type == SAVED)
+                        compact(r);
+                }
+                out.flush();
+                if(!batch.isEmpty())
+                    fileStream.getChannel().force(false);
+            } catch (IOException e) {
+                System.out.println("Edit journal stopped: " + e);
+                return;
+            }
+
+            if(last) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    System.out.println("Unable to close the edit journal: " + e);
+                }
+                return;
+            }
+        }
+    }
+
+    // rewrite the journal with only the edits after the save marker
+    private void compact(Record saved) throws IOException {
+        out.flush();
+        List<Record> records = read(file);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            DataOutputStream old = out;
+            out = compacted;
+            write(saved);
+            for(Record r : records)
+                if(r.sequence > saved.sequence && (r.type == INSERT || r.type == DELETE))
+                    write(r);
+            out = old;
+        }
+
+        out.close();
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        fileStream = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileStream));
+    }
+
+    // every record is [length][body][crc of body], so a record torn by a crash is detected and dropped
+    private void write(Record r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+
+        body.writeByte(r.type);
+        body.writeLong(r.sequence);
+        if(r.type == INSERT) {
+            body.writeInt(r.position);
+            body.writeInt(r.length);
+            body.writeChars(r.chars.toString());
+        } else if(r.type == DELETE) {
+            body.writeInt(r.position);
+            body.writeInt(r.length);
+        } else {
+            body.writeLong(r.fileSize);
+            body.writeLong(r.fileModified);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        out.writeInt((int)crc.getValue());
+    }
+
+    private static List<Record> read(File file) {
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while(true) {
+                int length = in.readInt();
+                if(length <= 0 || length > file.length())
+                    break;
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if((int)crc.getValue() != in.readInt())
+                    break;
+
+                DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+                Record r = new Record(body.readByte(), body.readLong());
+                if(r.type == INSERT) {
+                    r.position = body.readInt();
+                    r.length = body.readInt();
+                    r.chars = new StringBuilder(r.length);
+                    for(int i = 0; i < r.length; i++)
+                        r.chars.append(body.readChar());
+                } else if(r.type == DELETE) {
+                    r.position = body.readInt();
+                    r.length = body.readInt();
+                } else {
+                    r.fileSize = body.readLong();
+                    r.fileModified = body.readLong();
+                }
+                records.add(r);
+            }
+        } catch (EOFException e) {
+            // the end of the journal, or a record cut short by a crash
+        } catch (IOException e) {
+            System.out.println("Unable to read the edit journal: " + e);
+        }
+        return records;
+    }
+
+    private static int lastMatchingMarker(List<Record> records, File target) {
+        for(int i = records.size() - 1; i >= 0; i--) {
+            Record r = records.get(i);
+            if((r.type == OPEN || r.type == SAVED) && r.fileSize == target.length() && r.fileModified == target.lastModified())
+                return i;
+        }
+        return -1;
+    }
+
+    private static void apply(Record r, TextBuffer text) {
+        if(r.type == INSERT) {
+            text.insert(r.position, r.chars);
+        } else {
+            text.delete(r.position, r.length);
+        }
+    }
+
+    private static Record marker(byte type, long sequence, File target) {
+        Record r = new Record(type, sequence);
+        r.fileSize = target.length();
+        r.fileModified = target.lastModified();
+        return r;
+    }
+
+}
@@ -0,0 +1,12 @@
+package editor;
+
+// Told about every change made to a TextBuffer, right after it happened
+public interface EditListener {
+
+    void inserted(int position, char c);
+
+    void inserted(int position, CharSequence chars);
+
+    void deleted(int position, int length);
+
+}
@@ -9,10 +9,11 @@ import javafx.scene.control.ScrollBar;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
-import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
 import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 
 
 public class Editor extends Application {
@@ -20,7 +21,7 @@ public class Editor extends Application {
     private static final int WINDOW_WIDTH = 500;
     private static final int WINDOW_HEIGHT = 500;
 
-    private static FastLinkedList text;
+    private static TextBuffer text;
     private static Group root;
     private static Group textRoot;
     private static Scene scene;
@@ -28,23 +29,31 @@ public class Editor extends Application {
     private static Cursor cursor;
     private static ScrollBar scrollBar;
     private static String inputFilename;
+    // the files are read and written with the charset named by the editor.charset system property
+    private static Charset charset;
+    private static FileSaver saver;
+    private static EditJournal journal;
+    private static Stage stage;
 
     // initialize basic data structure
     private static void initialize() {
         root = new Group();
         textRoot = new Group();
+        // so a click in the text can take the focus from the find bar
+        textRoot.setFocusTraversable(true);
         scene = new Scene(root, WINDOW_WIDTH, WINDOW_HEIGHT, Color.WHITE);
         root.getChildren().add(textRoot);
-        text = new FastLinkedList();
         cursor = new Cursor(textRoot);
         scrollBar = new ScrollBar();
+        saver = new FileSaver();
         renderEngine = new RenderEngine(text, WINDOW_WIDTH, WINDOW_HEIGHT, cursor,scrollBar, textRoot);
     }
 
     @Override
     public void start(Stage primaryStage) {
 
-        EventHandler<KeyEvent> keyEventHandler = new KeyEventHandler(textRoot, text, renderEngine);
+        FindBar findBar = new FindBar(text, renderEngine, root);
+        EventHandler<KeyEvent> keyEventHandler = new KeyEventHandler(textRoot, text, renderEngine, findBar);
         EventHandler<MouseEvent> mouseEventEventHandler = new MouseEventHandler(renderEngine, text, textRoot);
 
         scene.setOnKeyTyped(keyEventHandler);
@@ -69,74 +78,75 @@ public class Editor extends Application {
 
         scrollBar.valueProperty().addListener((observableValue, oldValue, newValue) -> {
             textRoot.setLayoutY(-(int)newValue.doubleValue());
+            // only the rows around the window have nodes, so a scroll has to bring in the new ones
+            renderEngine.renderVisibleRows();
         });
 
-        primaryStage.setTitle("Editor");
+        stage = primaryStage;
+        // the text is not what is in the file until it is saved again
+        if (journal != null && journal.getRecovered() > 0)
+            primaryStage.setTitle("Editor - recovered, unsaved");
+        else
+            primaryStage.setTitle("Editor");
+
+        // the first layout runs at the first frame, once the toolkit is up
+        renderEngine.render(false);
 
         // This is boilerplate, necessary to setup the window where things are displayed.
         primaryStage.setScene(scene);
         primaryStage.show();
     }
 
-    // read file and storing the contents of the document into the FastLinkedList text
-    private static void readFile(String inputFilename) {
+    @Override
+    public void stop() {
+        if (journal != null)
+            journal.close();
+    }
+
+    // read file and return its contents, which become the initial contents of the text buffer
+    private static CharSequence readFile(String inputFilename) {
+        File inputFile = new File(inputFilename);
+        // Check to make sure that the input file exists!
+        if (!inputFile.exists()) {
+            System.out.println("Unable to copy because file with name " + inputFilename
+                    + " does not exist");
+            return "";
+        }
+
         try {
-            File inputFile = new File(inputFilename);
-            // Check to make sure that the input file exists!
-            if (!inputFile.exists()) {
-                System.out.println("Unable to copy because file with name " + inputFilename
-                        + " does not exist");
-                return;
-            }
-            FileReader reader = new FileReader(inputFile);
-            BufferedReader bufferedReader = new BufferedReader(reader);
-
-            int intRead = -1;
-            // Keep reading from the file input read() returns -1, which means the end of the file
-            // was reached.
-            while ((intRead = bufferedReader.read()) != -1) {
-                // The integer read can be cast to a char, because we're assuming ASCII.
-                char charRead = (char) intRead;
-                text.addChar(charRead);
-            }
+            FileLoader loader = new FileLoader();
+            CharBuffer contents = loader.load(inputFile, charset);
 
-            System.out.println("Successfully construct information for rendering " + inputFilename);
+            System.out.println("Successfully construct information for rendering " + inputFilename + ": "
+                    + contents.length() + " characters from " + loader.getBytesRead() + " bytes in "
+                    + loader.getMillis() + " ms (" + String.format("%.1f", loader.getThroughput()) + " MB/s)");
 
-            // Close the reader and writer.
-            bufferedReader.close();
+            return contents;
 
-        } catch (FileNotFoundException fileNotFoundException) {
-            System.out.println("File not found! Exception was: " + fileNotFoundException);
-            System.out.println("Now, Imma create a new file");
         } catch (IOException ioException) {
             System.out.println("Error when constructing information about rendering; exception was: " + ioException);
+            return "";
         }
     }
 
-    private static void constructGroup() {
-        for(Node node : text) {
-            Text t = node.character;
-            textRoot.getChildren().add(t);
-        }
-        text.setCurrentNode(text.head);
-    }
-
-    // write the content in the content list to the file
+    // save a snapshot of the text in the background, typing can go on while it is written
     public static void writeFile() {
 
-        try {
-            FileWriter writer = new FileWriter(inputFilename);
-
-            for(Node n : text) {
-                writer.write(n.character.getText());
+        stage.setTitle("Editor - saving...");
+        long startTime = System.nanoTime();
+        long checkpoint = journal == null ? 0 : journal.checkpoint();
+
+        saver.save(text.snapshot(), new File(inputFilename), charset, error -> {
+            if (error == null) {
+                if (journal != null)
+                    journal.saved(checkpoint);
+                System.out.println("file has been successfully saved in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+                stage.setTitle("Editor");
+            } else {
+                System.out.println("write file fails: " + error);
+                stage.setTitle("Editor - save failed");
             }
-
-            System.out.println("file has been successfully saved");
-            writer.close();
-
-        } catch (IOException e) {
-            System.out.println("write file fails");
-        }
+        });
 
     }
 
@@ -147,11 +157,14 @@ public class Editor extends Application {
             System.exit(1);
         }
         inputFilename = args[0];
+        charset = Charset.forName(System.getProperty("editor.charset", "UTF-8"));
 
+        text = TextBuffer.create(readFile(inputFilename));
+        // bring back edits that were never saved, then journal the new ones
+        journal = EditJournal.open(new File(inputFilename), text);
+        if (journal != null)
+            text.setEditListener(journal);
         initialize();
-        readFile(inputFilename);
-
-        constructGroup();
 
         cursor.setPosition(250,250);
         // cursor starts to blink
@@ -168,9 +181,6 @@ public class Editor extends Application {
         scrollBar.setMin(0);
         scrollBar.setMax(0);
 
-
-        renderEngine.render(false);
-
         // text.debug();
 
         if (args.length == 2)
@@ -0,0 +1,106 @@
+package editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+// Reads a whole file through memory-mapped chunks and decodes it straight into one CharBuffer.
+// The buffer is a CharSequence, so the piece table uses it as its original buffer as is and the
+// gap buffer copies it in bulk: loading never creates an object per character.
+public class FileLoader {
+
+    // map the file this many bytes at a time so that huge files don't need one huge mapping
+    private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private long bytesRead;
+    private long nanos;
+
+    public CharBuffer load(File file, Charset charset) throws IOException {
+        long startTime = System.nanoTime();
+
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            CharBuffer out = CharBuffer.allocate(initialCapacity(size, decoder));
+
+            long position = 0;
+            while(position < size) {
+                int length = (int)Math.min(CHUNK_SIZE, size - position);
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+
+                out = decode(decoder, in, out, last);
+
+                // a character cut in half by the end of the chunk is decoded again with the next one
+                position += length - in.remaining();
+                if(last)
+                    break;
+            }
+
+            // an empty file never reaches the decoder, so there is nothing to flush
+            while(size > 0 && decoder.flush(out).isOverflow())
+                out = grow(out);
+
+            out.flip();
+
+            bytesRead = size;
+            nanos = System.nanoTime() - startTime;
+            return out;
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getMillis() {
+        return nanos / 1000000;
+    }
+
+    // megabytes per second of the last load
+    public double getThroughput() {
+        if(nanos == 0)
+            return 0;
+        return (bytesRead / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+
+    private static CharBuffer decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, boolean last)
+            throws IOException {
+        while(true) {
+            CoderResult result = decoder.decode(in, out, last);
+            if(result.isOverflow())
+                out = grow(out);
+            else if(result.isUnderflow())
+                return out;
+            else
+                result.throwException();
+        }
+    }
+
+    private static int initialCapacity(long size, CharsetDecoder decoder) {
+        long estimate = (long)(size * (double)decoder.averageCharsPerByte()) + 16;
+        return (int)Math.min(estimate, Integer.MAX_VALUE - 8);
+    }
+
+    private static CharBuffer grow(CharBuffer out) {
+        int capacity = (int)Math.min((long)out.capacity() * 2 + 16, Integer.MAX_VALUE - 8);
+        if(capacity == out.capacity())
+            throw new OutOfMemoryError("the file has too many characters to be opened");
+
+        CharBuffer bigger = CharBuffer.allocate(capacity);
+        out.flip();
+        bigger.put(out);
+        return bigger;
+    }
+
+}
@@ -0,0 +1,149 @@
+package editor;
+
+import javafx.application.Platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+// Saves snapshots of the document on a background thread. The text is encoded in large chunks into a
+// temporary file next to the target, which is flushed to disk and then renamed over the target, so a
+// crash in the middle of a save leaves the old file untouched. Saves run one at a time in the order
+// they were asked for. The new file gets the permissions and owner of the old one, and saving through a
+// symlink writes the file it points at and leaves the link alone.
+public class FileSaver {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ThreadPoolExecutor executor;
+
+    public FileSaver() {
+        // the thread is not a daemon so that closing the window lets a running save finish, and it
+        // goes away on its own once there is nothing left to save
+        executor = Workers.singleThread("file-saver", false);
+    }
+
+    // done is called on the FX thread with null when the save worked, or with the error otherwise
+    public void save(TextSnapshot snapshot, File target, Charset charset, Consumer<IOException> done) {
+        executor.execute(() -> {
+            IOException error = null;
+            try {
+                write(snapshot, target, charset);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            IOException result = error;
+            Platform.runLater(() -> done.accept(result));
+        });
+    }
+
+    private static void write(TextSnapshot snapshot, File target, Charset charset) throws IOException {
+        Path targetPath = target.getAbsoluteFile().toPath();
+        if(Files.exists(targetPath))
+            targetPath = targetPath.toRealPath();
+        Path temp = Files.createTempFile(targetPath.getParent(), "." + targetPath.getFileName(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                encode(snapshot, channel, charset);
+                channel.force(true);
+            }
+            // the temp file was made readable by us only
+            if(Files.exists(targetPath))
+                copyAttributes(targetPath, temp);
+
+            try {
+                Files.move(temp, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void copyAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if(posix != null) {
+            PosixFileAttributes attributes = posix.readAttributes();
+            Files.setPosixFilePermissions(to, attributes.permissions());
+
+            // only root can give a file to someone else, the new file stays ours otherwise
+            PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+            try {
+                toView.setOwner(attributes.owner());
+            } catch (IOException e) {
+                System.out.println("can't keep the owner of " + from + ": " + e);
+            }
+            try {
+                toView.setGroup(attributes.group());
+            } catch (IOException e) {
+                System.out.println("can't keep the group of " + from + ": " + e);
+            }
+        }
+
+        AclFileAttributeView acl = Files.getFileAttributeView(from, AclFileAttributeView.class);
+        if(acl != null)
+            Files.getFileAttributeView(to, AclFileAttributeView.class).setAcl(acl.getAcl());
+    }
+
+    private static void encode(TextSnapshot snapshot, FileChannel channel, Charset charset) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        char[] chars = new char[CHUNK_SIZE];
+        ByteBuffer out = ByteBuffer.allocateDirect((int)(CHUNK_SIZE * encoder.maxBytesPerChar()) + 16);
+
+        int length = snapshot.length();
+        CharBuffer in = CharBuffer.wrap(chars, 0, 0);
+        int position = 0;
+        while(true) {
+            // refill the chunk, keeping whatever the encoder left (half of a surrogate pair)
+            in.compact();
+            int count = Math.min(in.remaining(), length - position);
+            snapshot.getChars(position, position + count, chars, in.position());
+            in.position(in.position() + count);
+            in.flip();
+            position += count;
+
+            boolean last = position == length;
+            CoderResult result = encoder.encode(in, out, last);
+            if(result.isError())
+                result.throwException();
+            drain(out, channel);
+
+            if(last && !result.isOverflow())
+                break;
+        }
+
+        while(encoder.flush(out).isOverflow())
+            drain(out, channel);
+        drain(out, channel);
+    }
+
+    private static void drain(ByteBuffer out, FileChannel channel) throws IOException {
+        out.flip();
+        while(out.hasRemaining())
+            channel.write(out);
+        out.clear();
+    }
+
+}
@@ -0,0 +1,259 @@
+package editor;
+
+import javafx.event.Event;
+import javafx.geometry.Insets;
+import javafx.scene.Group;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.HBox;
+
+import java.util.regex.PatternSyntaxException;
+
+// The find bar at the top of the window, opened with ctrl+F and closed with escape. Every change to the
+// query or to the document starts the search again on the search thread, the matches are highlighted
+// as they come in, and enter or F3 (shift for backwards) selects the next one after the cursor.
+//
+// Replace all builds the new text of everything from the first match to the last in one pass over the
+// document and puts it in with a single edit, so it is one undo and one layout however many matches.
+public class FindBar {
+
+    private final TextBuffer text;
+    private final RenderEngine renderEngine;
+    private final Group root;
+
+    private final HBox bar;
+    private final TextField field;
+    private final TextField replacement;
+    private final CheckBox regex;
+    private final Label count;
+
+    private final SearchWorker worker = new SearchWorker();
+    private final MatchIndex matches = new MatchIndex();
+    private KeyEventHandler keyEventHandler;
+    // the edits since the search started, only tracked while the bar is shown
+    private ChangeRegion change;
+    private boolean shown;
+    private boolean searching;
+    // a search is to start again at the next frame
+    private boolean refreshing;
+
+    public FindBar(TextBuffer text, RenderEngine renderEngine, Group root) {
+        this.text = text;
+        this.renderEngine = renderEngine;
+        this.root = root;
+
+        field = new TextField();
+        field.setPromptText("Find");
+        replacement = new TextField();
+        replacement.setPromptText("Replace");
+        Button replaceAll = new Button("Replace all");
+        replaceAll.setOnAction(event -> replaceAll());
+        regex = new CheckBox("Regex");
+        count = new Label();
+        bar = new HBox(5, field, replacement, replaceAll, regex, count);
+        bar.setPadding(new Insets(3));
+        bar.setStyle("-fx-background-color: #eeeeee;");
+
+        field.textProperty().addListener((observable, oldValue, newValue) -> search());
+        regex.selectedProperty().addListener((observable, oldValue, newValue) -> search());
+
+        // enter has to be seen before the text field takes it
+        bar.addEventFilter(KeyEvent.KEY_PRESSED, this::handleKey);
+        // the fields keep the keys they use, the rest like ctrl+S and ctrl+Z go on to the document, but
+        // the clicks on the bar are not for the text behind it
+        bar.addEventHandler(MouseEvent.ANY, Event::consume);
+
+        renderEngine.showMatches(matches);
+    }
+
+    // the edits of replace all go through it so they can be undone
+    public void setKeyEventHandler(KeyEventHandler keyEventHandler) {
+        this.keyEventHandler = keyEventHandler;
+    }
+
+    public void show() {
+        if(!shown) {
+            shown = true;
+            change = text.trackChanges();
+            root.getChildren().add(bar);
+        }
+
+        // look for the selection if it is a few words
+        if(renderEngine.hasSelection() && renderEngine.boxEnd - renderEngine.boxStart <= 100) {
+            String selected = text.getText(renderEngine.boxStart, renderEngine.boxEnd);
+            if(selected.indexOf('\n') == -1)
+                field.setText(selected);
+        }
+
+        field.requestFocus();
+        field.selectAll();
+        search();
+    }
+
+    public void hide() {
+        if(!shown)
+            return;
+
+        shown = false;
+        worker.cancel();
+        matches.clear();
+        renderEngine.renderMatches();
+        text.stopTracking(change);
+        change = null;
+        root.getChildren().remove(bar);
+    }
+
+    // Called after every key the document gets, the matches are stale once the text changed. The search
+    // starts again once per frame, not once per key, so key repeat doesn't take a snapshot every time
+    public void refresh() {
+        if(!shown || !change.changed || refreshing)
+            return;
+
+        refreshing = true;
+        renderEngine.runAtPulse(() -> {
+            refreshing = false;
+            if(shown && change.changed)
+                search();
+        });
+    }
+
+    // select the first match starting after the cursor, or after the start of the match selected
+    public void next() {
+        if(!shown) {
+            show();
+            return;
+        }
+        if(matches.size() == 0)
+            return;
+
+        int from = renderEngine.hasSelection() ? renderEngine.boxStart + 1 : text.currentPosition;
+        int match = matches.next(from);
+        if(match == matches.size())
+            // wrap around to the top
+            match = 0;
+        select(match);
+    }
+
+    public void previous() {
+        if(!shown) {
+            show();
+            return;
+        }
+        if(matches.size() == 0)
+            return;
+
+        int from = renderEngine.hasSelection() ? renderEngine.boxStart : text.currentPosition;
+        int match = matches.previous(from);
+        if(match == -1)
+            // wrap around to the bottom
+            match = matches.size() - 1;
+        select(match);
+    }
+
+    // replace every match in the document, $n in a regex replacement is group n
+    public void replaceAll() {
+        String query = field.getText();
+        if(query == null || query.isEmpty())
+            return;
+
+        Finder finder;
+        try {
+            finder = new Finder(query, regex.isSelected());
+        } catch (PatternSyntaxException e) {
+            count.setText("bad pattern");
+            return;
+        }
+
+        long start = System.nanoTime();
+        MatchIndex replaced = new MatchIndex();
+        StringBuilder out = new StringBuilder();
+        String with = replacement.getText() == null ? "" : replacement.getText();
+        try {
+            finder.replaceAll(text, with, replaced, out);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            count.setText("bad replacement");
+            return;
+        }
+        if(replaced.size() == 0)
+            return;
+
+        keyEventHandler.replace(replaced.start(0), replaced.end(replaced.size() - 1), out);
+        System.out.println("replaced " + replaced.size() + " matches in " + (System.nanoTime() - start) / 1000000 + " ms");
+        refresh();
+    }
+
+    private void select(int match) {
+        text.setCurrentPosition(matches.end(match));
+        renderEngine.renderSelectionBox(matches.start(match), matches.end(match));
+        renderEngine.renderCursor(false);
+        renderEngine.cursorAppear();
+        count.setText((match + 1) + " of " + matches.size() + (searching ? "..." : ""));
+    }
+
+    private void handleKey(KeyEvent keyEvent) {
+        switch(keyEvent.getCode()) {
+            case ENTER:
+            case F3:
+                if(keyEvent.isShiftDown())
+                    previous();
+                else
+                    next();
+                keyEvent.consume();
+                break;
+            case ESCAPE:
+                hide();
+                keyEvent.consume();
+                break;
+        }
+    }
+
+    // throw the matches away and look for the query in the text as it is now
+    private void search() {
+        worker.cancel();
+        matches.clear();
+        renderEngine.renderMatches();
+        searching = false;
+        if(!shown)
+            return;
+
+        change.clear();
+        String query = field.getText();
+        if(query == null || query.isEmpty()) {
+            count.setText("");
+            return;
+        }
+
+        Finder finder;
+        try {
+            finder = new Finder(query, regex.isSelected());
+        } catch (PatternSyntaxException e) {
+            count.setText("bad pattern");
+            return;
+        }
+
+        searching = true;
+        updateCount();
+        TextSnapshot snapshot = text.snapshot();
+        worker.search(snapshot, finder, found -> {
+            matches.addAll(found);
+            renderEngine.renderMatches();
+            updateCount();
+        }, time -> {
+            searching = false;
+            updateCount();
+            // characters per microsecond, which is MB/s for a file that is mostly ASCII
+            System.out.println("searched " + snapshot.length() + " characters in " + time / 1000000 + " ms ("
+                    + String.format("%.1f", snapshot.length() * 1000.0 / Math.max(1, time)) + " MB/s on "
+                    + SearchWorker.getParallelism() + " threads), " + matches.size() + " matches");
+        });
+    }
+
+    private void updateCount() {
+        count.setText(matches.size() + (matches.size() == 1 ? " match" : " matches") + (searching ? "..." : ""));
+    }
+
+}
@@ -0,0 +1,185 @@
+package editor;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Finds a query in any CharSequence, a snapshot of the document most of the time, without turning it
+// into a String. A plain query is looked for with Boyer-Moore-Horspool over blocks of the text copied
+// into a char[]; a regex goes through java.util.regex, which reads the CharSequence directly.
+// Matches never overlap, and empty regex matches are skipped.
+public class Finder {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final String query;
+    private final Pattern pattern;
+    // How far the window can move when its last character is c: the distance from the last place c is
+    // in the query, not counting the query's last character, to the end of the query. Characters share
+    // an entry by their low byte and it keeps the smallest of their shifts, which is always safe
+    private final int[] shift;
+    private char[] block;
+
+    // throws PatternSyntaxException when regex is true and query is not a valid pattern
+    public Finder(String query, boolean regex) {
+        this.query = query;
+        if(regex) {
+            pattern = Pattern.compile(query, Pattern.MULTILINE);
+            shift = null;
+        } else {
+            pattern = null;
+            shift = new int[256];
+            int length = query.length();
+            Arrays.fill(shift, length);
+            for(int i = 0; i < length - 1; i++)
+                shift[query.charAt(i) & 0xFF] = length - 1 - i;
+        }
+    }
+
+    // a copy for another thread, a Finder keeps its block between calls
+    public Finder copy() {
+        return new Finder(this);
+    }
+
+    private Finder(Finder other) {
+        query = other.query;
+        pattern = other.pattern;
+        shift = other.shift;
+    }
+
+    // Add the matches starting in [from, to) of text to matches. A match may run past to, and the
+    // return value is where the search of what comes after to should go on from so that it doesn't
+    // find a match overlapping this one
+    public int find(CharSequence text, int from, int to, MatchIndex matches) {
+        if(query.isEmpty())
+            return to;
+        if(pattern != null)
+            return findPattern(text, from, to, matches);
+        return findPlain(text, from, to, matches);
+    }
+
+    // The matcher only looks for matches in [from, to), so a chunk with few of them is not searched to
+    // the end of the text. When it finds one without running into to, the text after to can't change
+    // it. Otherwise (and a find that fails always says it hit the end) the starts up to the one found
+    // are tried again one by one, and only a try that runs into to gets the rest of the text
+    private int findPattern(CharSequence text, int from, int to, MatchIndex matches) {
+        Matcher m = pattern.matcher(text);
+        // lets ^, $ and lookarounds see the text around the region
+        m.useTransparentBounds(true);
+        m.useAnchoringBounds(false);
+
+        int length = text.length();
+        int next = to;
+        int start = from;
+        while(start < to) {
+            m.region(start, to);
+            boolean found = m.find();
+            if(!found || m.hitEnd()) {
+                int last = found ? m.start() : to - 1;
+                found = false;
+                for(int at = start; at <= last && !found; at++) {
+                    m.region(at, to);
+                    found = m.lookingAt();
+                    if(m.hitEnd()) {
+                        m.region(at, length);
+                        found = m.lookingAt();
+                    }
+                }
+                if(!found)
+                    break;
+            }
+
+            if(m.end() == m.start()) {
+                // the way Matcher.find goes on after an empty match
+                start = m.end() + 1;
+                continue;
+            }
+            matches.add(m.start(), m.end());
+            next = Math.max(to, m.end());
+            start = m.end();
+        }
+        return next;
+    }
+
+    private int findPlain(CharSequence text, int from, int to, MatchIndex matches) {
+        int length = query.length();
+        int last = length - 1;
+        char lastChar = query.charAt(last);
+        int textLength = text.length();
+        if(block == null)
+            block = new char[BLOCK_SIZE + length];
+
+        int next = to;
+        int start = from;
+        while(start < to && start + length <= textLength) {
+            // a block holds the windows starting in [start, blockTo)
+            int blockTo = Math.min(to, start + BLOCK_SIZE);
+            int blockEnd = Math.min(textLength, blockTo + last);
+            TextBuffer.copyChars(text, start, blockEnd - start, block, 0);
+
+            int i = 0;
+            int windows = blockEnd - start - last;
+            while(i < windows && start + i < blockTo) {
+                char c = block[i + last];
+                if(c == lastChar && regionMatches(i)) {
+                    matches.add(start + i, start + i + length);
+                    next = Math.max(to, start + i + length);
+                    i += length;
+                } else
+                    i += shift[c & 0xFF];
+            }
+            start += i;
+        }
+        return next;
+    }
+
+    // Replace every match of the whole text in one pass. matches gets the matches and out what the
+    // text from the start of the first one to the end of the last one becomes. In a regex replacement
+    // $n stands for group n; a bad one throws IllegalArgumentException or IndexOutOfBoundsException
+    public void replaceAll(CharSequence text, String replacement, MatchIndex matches, StringBuilder out) {
+        if(query.isEmpty())
+            return;
+
+        if(pattern != null) {
+            Matcher m = pattern.matcher(text);
+            StringBuffer piece = new StringBuffer();
+            while(m.find()) {
+                if(m.end() == m.start())
+                    continue;
+                // the text since the last match, then the replacement
+                piece.setLength(0);
+                m.appendReplacement(piece, replacement);
+                // the first piece starts at the top of the text, which isn't part of out
+                out.append(piece, matches.size() == 0 ? m.start() : 0, piece.length());
+                matches.add(m.start(), m.end());
+            }
+            return;
+        }
+
+        find(text, 0, text.length(), matches);
+        for(int i = 0; i < matches.size(); i++) {
+            if(i > 0)
+                appendChars(text, matches.end(i - 1), matches.start(i), out);
+            out.append(replacement);
+        }
+    }
+
+    // copy [start, end) of text to out a block at a time
+    private void appendChars(CharSequence text, int start, int end, StringBuilder out) {
+        if(block == null)
+            block = new char[BLOCK_SIZE + query.length()];
+        for(int from = start; from < end; from += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, end - from);
+            TextBuffer.copyChars(text, from, count, block, 0);
+            out.append(block, 0, count);
+        }
+    }
+
+    private boolean regionMatches(int at) {
+        for(int j = query.length() - 2; j >= 0; j--)
+            if(block[at + j] != query.charAt(j))
+                return false;
+        return true;
+    }
+
+}
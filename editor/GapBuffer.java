@@ -0,0 +1,194 @@
+package editor;
+
+// Stores the document in a single char[] with a gap at the last edit position. Typing, backspace and
+// held-down keys all happen right at the gap, so they cost O(1) amortized and allocate nothing until
+// the gap runs out and the array doubles.
+//
+// A snapshot shares the array and reads around the gap it was taken with, so taking one copies
+// nothing. Typing right at the gap only writes into that gap; the array is copied once, the first time
+// an edit has to write over characters a snapshot still reads.
+public class GapBuffer extends TextBuffer {
+
+    private static final int INITIAL_GAP = 64;
+
+    private char[] buffer;
+    private int gapStart;
+    private int gapEnd;
+    // what can be written without changing a snapshot: the gap all the snapshots of this array share
+    private int writableStart;
+    private int writableEnd;
+
+    public GapBuffer(CharSequence original) {
+        int length = original.length();
+        buffer = new char[length + INITIAL_GAP];
+
+        // the cursor starts at the beginning of the file, so that is where the gap goes
+        gapStart = 0;
+        gapEnd = INITIAL_GAP;
+        copyChars(original, 0, length, buffer, gapEnd);
+        writableEnd = buffer.length;
+
+        currentPosition = 0;
+    }
+
+    @Override
+    protected void insertChar(int position, char c) {
+        if(position < 0 || position > size())
+            throw new IndexOutOfBoundsException("position " + position + " out of " + size());
+
+        moveGap(position);
+        if(gapStart == gapEnd)
+            growGap(1);
+
+        beforeWrite(gapStart, gapStart + 1);
+        buffer[gapStart++] = c;
+    }
+
+    @Override
+    protected void insertChars(int position, CharSequence chars) {
+        if(position < 0 || position > size())
+            throw new IndexOutOfBoundsException("position " + position + " out of " + size());
+
+        int length = chars.length();
+        moveGap(position);
+        if(gapEnd - gapStart < length)
+            growGap(length);
+
+        beforeWrite(gapStart, gapStart + length);
+        copyChars(chars, 0, length, buffer, gapStart);
+        gapStart += length;
+    }
+
+    @Override
+    protected void deleteChars(int position, int length) {
+        if(length <= 0)
+            return;
+        if(position < 0 || position + length > size())
+            throw new IndexOutOfBoundsException("range " + position + " +" + length + " out of " + size());
+
+        moveGap(position);
+        gapEnd += length;
+    }
+
+    @Override
+    public char charAt(int position) {
+        if(position < 0 || position >= size())
+            throw new IndexOutOfBoundsException("position " + position + " out of " + size());
+
+        return position < gapStart ? buffer[position] : buffer[position + gapEnd - gapStart];
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        // the part before the gap, then the part after it
+        int beforeGap = Math.max(0, Math.min(end, gapStart) - start);
+        System.arraycopy(buffer, start, dst, dstBegin, beforeGap);
+        start += beforeGap;
+        System.arraycopy(buffer, start + gapEnd - gapStart, dst, dstBegin + beforeGap, end - start);
+    }
+
+    @Override
+    public int size() {
+        return buffer.length - (gapEnd - gapStart);
+    }
+
+    // the array as it is, only what is outside the gap now may not be written any more
+    @Override
+    public TextSnapshot snapshot() {
+        writableStart = Math.max(writableStart, gapStart);
+        writableEnd = Math.min(writableEnd, gapEnd);
+        return new GapSnapshot(buffer, gapStart, gapEnd);
+    }
+
+    @Override
+    public void debug() {
+        System.out.println("size: " + size() + " gap: [" + gapStart + ", " + gapEnd + ") capacity: "
+                + buffer.length + " cursor: " + currentPosition);
+    }
+
+    private static class GapSnapshot implements TextSnapshot {
+
+        private final char[] buffer;
+        private final int gapStart;
+        private final int gapEnd;
+
+        GapSnapshot(char[] buffer, int gapStart, int gapEnd) {
+            this.buffer = buffer;
+            this.gapStart = gapStart;
+            this.gapEnd = gapEnd;
+        }
+
+        @Override
+        public int length() {
+            return buffer.length - (gapEnd - gapStart);
+        }
+
+        @Override
+        public char charAt(int index) {
+            return index < gapStart ? buffer[index] : buffer[index + gapEnd - gapStart];
+        }
+
+        @Override
+        public void getChars(int start, int end, char[] dst, int dstBegin) {
+            int beforeGap = Math.max(0, Math.min(end, gapStart) - start);
+            System.arraycopy(buffer, start, dst, dstBegin, beforeGap);
+            start += beforeGap;
+            System.arraycopy(buffer, start + gapEnd - gapStart, dst, dstBegin + beforeGap, end - start);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    // buffer[start, end) is about to change: if a snapshot still reads any of it, the snapshots keep the
+    // old array and the text goes on in a copy
+    private void beforeWrite(int start, int end) {
+        if(start < end && (start < writableStart || end > writableEnd)) {
+            buffer = buffer.clone();
+            writableStart = 0;
+            writableEnd = buffer.length;
+        }
+    }
+
+    // slide the characters between the old and the new gap position to the other side of the gap
+    private void moveGap(int position) {
+        if(position < gapStart) {
+            int count = gapStart - position;
+            beforeWrite(gapEnd - count, gapEnd);
+            System.arraycopy(buffer, position, buffer, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if(position > gapStart) {
+            int count = position - gapStart;
+            beforeWrite(gapStart, gapStart + count);
+            System.arraycopy(buffer, gapEnd, buffer, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    // make room for at least needed more characters, doubling so that inserts stay amortized O(1)
+    private void growGap(int needed) {
+        int afterGap = buffer.length - gapEnd;
+        int capacity = Math.max(buffer.length * 2, size() + needed + INITIAL_GAP);
+
+        char[] bigger = new char[capacity];
+        System.arraycopy(buffer, 0, bigger, 0, gapStart);
+        System.arraycopy(buffer, gapEnd, bigger, capacity - afterGap, afterGap);
+
+        buffer = bigger;
+        gapEnd = capacity - afterGap;
+        writableStart = 0;
+        writableEnd = capacity;
+    }
+
+}
@@ -0,0 +1,95 @@
+package editor;
+
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Widths of characters for one font, measured the first time they are needed and kept in primitive
+// tables so that layout, the cursor and the selection never have to go through a Text to measure.
+// One instance is shared per (font name, font size), and it can be used from the layout thread too.
+public class GlyphMetrics {
+
+    private static final Map<String, GlyphMetrics> cache = new HashMap<>();
+
+    // the char range is split in pages of 256 so that a plain ASCII file only fills one of them
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final Font font;
+    private final int height;
+    // width + 1 of every character measured so far, 0 for the ones that are not. With 0 as "unknown"
+    // a page is usable as soon as another thread sees it, no matter which of its writes it sees yet
+    private final int[][] pages;
+    // the same for the unrounded widths, which is what a Text holding a whole line advances by
+    private final float[][] advancePages;
+    // never added to the scene, only used to measure characters that are not in the table yet
+    private final Text measure;
+
+    private GlyphMetrics(String fontName, int fontSize) {
+        font = Font.font(fontName, fontSize);
+        measure = new Text(0, 0, "a");
+        measure.setFont(font);
+        height = (int)(measure.getLayoutBounds().getHeight() + 1);
+        pages = new int[(Character.MAX_VALUE + 1) >> PAGE_BITS][];
+        advancePages = new float[(Character.MAX_VALUE + 1) >> PAGE_BITS][];
+    }
+
+    public static GlyphMetrics get(String fontName, int fontSize) {
+        return cache.computeIfAbsent(fontName + ":" + fontSize, key -> new GlyphMetrics(fontName, fontSize));
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // the width of c rounded the same way RenderEngine.textWidth rounds a Text
+    public int width(char c) {
+        int[] page = pages[c >> PAGE_BITS];
+        if(page != null) {
+            int width = page[c & (PAGE_SIZE - 1)];
+            if(width != 0)
+                return width - 1;
+        }
+        return measure(c);
+    }
+
+    // the width of c without rounding, the characters of a line add up to the width of the line
+    public double advance(char c) {
+        float[] page = advancePages[c >> PAGE_BITS];
+        if(page != null) {
+            float advance = page[c & (PAGE_SIZE - 1)];
+            if(advance != 0)
+                return advance - 1;
+        }
+        measure(c);
+        return advancePages[c >> PAGE_BITS][c & (PAGE_SIZE - 1)] - 1;
+    }
+
+    // one thread at a time, the Text used to measure is shared
+    private synchronized int measure(char c) {
+        int[] page = pages[c >> PAGE_BITS];
+        float[] advances = advancePages[c >> PAGE_BITS];
+        if(page == null) {
+            page = new int[PAGE_SIZE];
+            advances = new float[PAGE_SIZE];
+            // the advances first, a page seen in pages always has its advances
+            advancePages[c >> PAGE_BITS] = advances;
+            pages[c >> PAGE_BITS] = page;
+        }
+
+        int index = c & (PAGE_SIZE - 1);
+        if(page[index] == 0) {
+            measure.setText(String.valueOf(c));
+            advances[index] = (float)measure.getLayoutBounds().getWidth() + 1;
+            page[index] = RenderEngine.textWidth(measure) + 1;
+        }
+        return page[index] - 1;
+    }
+
+}
@@ -0,0 +1,78 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One Text per visible character. Text nodes exist only for the characters of the rows around the
+// window and they are recycled: the first usedGlyphs of the pool are the children of glyphRoot, the
+// rest wait to be reused.
+public class GlyphRenderer extends TextRenderer {
+
+    private final Group glyphRoot = new Group();
+    private final List<Text> glyphPool = new ArrayList<>();
+    private int usedGlyphs;
+
+    public GlyphRenderer(RenderEngine engine, TextBuffer list) {
+        super(engine, list);
+    }
+
+    @Override
+    public Node getNode() {
+        return glyphRoot;
+    }
+
+    @Override
+    public void draw(int firstRow, int lastRow) {
+        Font font = engine.getFont();
+
+        int used = 0;
+        for(int row = firstRow; row <= lastRow; row++) {
+            int end = engine.getRowEnd(row);
+            int y = engine.getRowY(row);
+            int x = engine.leftMargin;
+
+            for(int i = engine.getFirstCharOfTheRow(row); i < end; i++) {
+                char c = list.charAt(i);
+                int width = engine.charWidth(c);
+
+                // white space and new lines draw nothing, they don't need a node
+                if(c != ' ' && c != '\n') {
+                    Text t = getGlyph(used++, font);
+                    String s = t.getText();
+                    if(s.length() != 1 || s.charAt(0) != c)
+                        t.setText(glyphText(c));
+                    // a pooled node keeps its font, it only needs a new one after a font size change
+                    if(t.getFont() != font)
+                        t.setFont(font);
+                    t.setX(x);
+                    t.setY(y);
+                }
+
+                x += width;
+            }
+        }
+
+        if(used < usedGlyphs)
+            glyphRoot.getChildren().remove(used, usedGlyphs);
+        else if(used > usedGlyphs)
+            glyphRoot.getChildren().addAll(glyphPool.subList(usedGlyphs, used));
+        usedGlyphs = used;
+    }
+
+    private Text getGlyph(int index, Font font) {
+        if(index == glyphPool.size()) {
+            Text t = new Text(0, 0, "");
+            t.setTextOrigin(VPos.TOP);
+            t.setFont(font);
+            glyphPool.add(t);
+        }
+        return glyphPool.get(index);
+    }
+
+}
@@ -2,45 +2,39 @@ package editor;
 
 import javafx.event.EventHandler;
 import javafx.scene.Group;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
-import javafx.scene.text.Text;
 
 import java.util.*;
 
 public class KeyEventHandler implements EventHandler<KeyEvent> {
 
     private Group textRoot;
-    private FastLinkedList text;
+    private TextBuffer text;
     private RenderEngine renderEngine;
-    private Deque<Info> undoStack;
+    private FindBar findBar;
+    private History undoStack;
     private final int stackSize = 100;
-    private Deque<Info> redoStack;
+    private History redoStack;
     private Clipboard clipboard = Clipboard.getSystemClipboard();
 
+    // One edit to apply on undo or redo: insert chars at position if add is true, otherwise delete the
+    // chars.length() characters before position. notDone marks the parts of an action that go with the
+    // Info under it, so they are undone together
     private class Info {
-        Node position;
-        Node toAdd;
+        int position;
         boolean add;
-        List<Node> nodes;
+        StringBuilder chars;
         boolean notDone = false;
+        // typing or backspacing at the same spot can still grow this one
+        boolean open = false;
 
-        Info(Node n, boolean add) {
-            this.position = n;
-            this.add = add;
-        }
-
-        Info(Node n, Node toAdd, boolean add) {
-            this.position = n;
-            this.toAdd = toAdd;
-            this.add = add;
-        }
-
-        Info(Node position, List<Node> nodes, boolean add) {
+        Info(int position, CharSequence chars, boolean add) {
             this.position = position;
-            this.nodes = nodes;
+            this.chars = new StringBuilder(chars);
             this.add = add;
         }
 
@@ -50,17 +44,59 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
 
         @Override
         public String toString() {
-            return add + " : " + "add " + toAdd.character.getText() + " after \'" + position.character.getText() + "\'";
+            return add + " : " + "add " + chars + " at " + position;
+        }
+    }
+
+    // A stack of Info that keeps count of the actions in it, so the size limit is checked in O(1).
+    // An action is an Info without notDone plus all the notDone ones pushed right after it
+    private class History {
+        private Deque<Info> stack = new ArrayDeque<>();
+        private int actions = 0;
+
+        void push(Info i) {
+            stack.push(i);
+            if(!i.notDone) {
+                actions++;
+                if(actions > stackSize)
+                    dropOldest();
+            }
+        }
+
+        Info pop() {
+            Info i = stack.pop();
+            if(!i.notDone)
+                actions--;
+            return i;
+        }
+
+        Info peek() {
+            return stack.peek();
+        }
+
+        void clear() {
+            stack.clear();
+            actions = 0;
+        }
+
+        // the bottom of the stack is the start of the oldest action, take its parts with it
+        private void dropOldest() {
+            stack.removeLast();
+            while(!stack.isEmpty() && stack.peekLast().notDone)
+                stack.removeLast();
+            actions--;
         }
     }
 
-    public KeyEventHandler(Group root, FastLinkedList text, RenderEngine renderEngine) {
+    public KeyEventHandler(Group root, TextBuffer text, RenderEngine renderEngine, FindBar findBar) {
         this.textRoot = root;
         this.text = text;
         this.renderEngine = renderEngine;
+        this.findBar = findBar;
+        findBar.setKeyEventHandler(this);
 
-        undoStack = new ArrayDeque<>(stackSize);
-        redoStack = new ArrayDeque<>();
+        undoStack = new History();
+        redoStack = new History();
     }
 
     @Override
@@ -118,7 +154,18 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
                     break;
                 case P:
                     // print the position of the cursor
-                    System.out.println(renderEngine.cursor.getX() + ", " + renderEngine.cursor.getY());
+                    renderEngine.flush();
+                    System.out.println(renderEngine.cursor.getX() + ", " + renderEngine.cursor.getY() + " line "
+                            + (text.getLines().lineOf(text.currentPosition) + 1) + ", column "
+                            + (text.getLines().columnOf(text.currentPosition) + 1));
+                    break;
+                case G:
+                    // go to a line
+                    goToLine();
+                    break;
+                case F:
+                    // find
+                    findBar.show();
                     break;
             }
 
@@ -132,21 +179,32 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
                 // ignore some characters
                 if (characterTyped.length() > 0 && characterTyped.charAt(0) != 8) {
 
-                    if(renderEngine.boxes.size() != 0) {
-                        List<Node> nodes = deleteSelectedRegion();
-                        Info addBackNodes = new Info(text.currentNode, nodes, true);
-                        addToUndoStack(addBackNodes);
+                    if(renderEngine.hasSelection()) {
+                        String chars = deleteSelectedRegion();
+                        addToUndoStack(new Info(text.currentPosition, chars, true));
 
                         addCharAfterCurrent(characterTyped);
-                        Info deleteChar = new Info(text.currentNode, false);
+                        Info deleteChar = new Info(text.currentPosition, String.valueOf(text.charAt(text.currentPosition - 1)), false);
                         deleteChar.addChild();
+                        deleteChar.open = true;
                         addToUndoStack(deleteChar);
 
                     } else {
 
                         addCharAfterCurrent(characterTyped);
-                        // push to undoStack
-                        addToUndoStack(new Info(text.currentNode, false));
+                        char typed = text.charAt(text.currentPosition - 1);
+
+                        // a run of typing is undone as one, up to the end of the line
+                        Info last = undoStack.peek();
+                        if(last != null && last.open && !last.add && last.position == text.currentPosition - 1
+                                && last.chars.charAt(last.chars.length() - 1) != '\n') {
+                            last.chars.append(typed);
+                            last.position++;
+                        } else {
+                            Info deleteChar = new Info(text.currentPosition, String.valueOf(typed), false);
+                            deleteChar.open = true;
+                            addToUndoStack(deleteChar);
+                        }
 
                     }
 
@@ -160,41 +218,51 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
 
                 switch(code){
                     case BACK_SPACE:
-                        if(renderEngine.boxes.size() != 0) {
-                            List<Node> toDelete = deleteSelectedRegion();
+                        if(renderEngine.hasSelection()) {
+                            String toDelete = deleteSelectedRegion();
                             renderEngine.render(false);
                             renderEngine.cursorAppear();
 
-                            addToUndoStack(new Info(text.currentNode, toDelete, true));
+                            addToUndoStack(new Info(text.currentPosition, toDelete, true));
 
-                        } else {
-                            Node toDelete = text.currentNode;
+                        } else if(text.currentPosition != 0) {
+                            char toDelete = text.charAt(text.currentPosition - 1);
                             deleteCurrent();
 
-                            // push to undo stack
-                            addToUndoStack(new Info(text.currentNode, toDelete, true));
+                            // holding backspace adds to the same record, each char goes in front
+                            Info last = undoStack.peek();
+                            if(last != null && last.open && last.add && last.position == text.currentPosition + 1 && toDelete != '\n') {
+                                last.chars.insert(0, toDelete);
+                                last.position = text.currentPosition;
+                            } else {
+                                Info addBack = new Info(text.currentPosition, String.valueOf(toDelete), true);
+                                addBack.open = toDelete != '\n';
+                                addToUndoStack(addBack);
+                            }
 
                         }
                         redoStack.clear();
                         keyEvent.consume();
                         break;
                     case LEFT:
-                        if(renderEngine.boxes.size() == 0) {
+                        if(!renderEngine.hasSelection()) {
                             text.moveLeft();
-                            renderEngine.render(true);
+                            // nothing changed but the cursor, so no layout
+                            renderEngine.renderCursor(true);
                         } else {
-                            text.setCurrentNode(renderEngine.boxStartNode.pre);
+                            text.setCurrentPosition(renderEngine.boxStart);
                             renderEngine.removeSelectionBox();
                             renderEngine.renderCursor(true);
                         }
                         renderEngine.cursorAppear();
                         break;
                     case RIGHT:
-                        if(renderEngine.boxes.size() == 0) {
+                        if(!renderEngine.hasSelection()) {
                             text.moveRight();
-                            renderEngine.render(true);
+                            // nothing changed but the cursor, so no layout
+                            renderEngine.renderCursor(true);
                         } else {
-                            text.setCurrentNode(renderEngine.boxEndNode);
+                            text.setCurrentPosition(renderEngine.boxEnd);
                             renderEngine.removeSelectionBox();
                             renderEngine.renderCursor(false);
                         }
@@ -206,30 +274,31 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
                     case DOWN:
                         handleDownArrow();
                         break;
+                    case F3:
+                        // the next match, or the one before with shift
+                        if(keyEvent.isShiftDown())
+                            findBar.previous();
+                        else
+                            findBar.next();
+                        break;
                 }
             }
 
         }
-    }
-
-    private List<Node> deleteSelectedRegion() {
 
-        List<Node> ans = new LinkedList<>();
+        // the matches are found again once the text has been edited
+        findBar.refresh();
+    }
 
-        if(renderEngine.boxes.size() == 0)
-            return ans;
+    // returns the deleted characters
+    private String deleteSelectedRegion() {
 
-        Node beforeStart = renderEngine.boxStartNode.pre;
+        if(!renderEngine.hasSelection())
+            return "";
 
-        Node iter = renderEngine.boxEndNode;
-        text.setCurrentNode(iter);
-
-        while(text.currentNode != beforeStart) {
-            Node cur = text.currentNode;
-            textRoot.getChildren().remove(cur.character);
-            ans.add(0, cur);
-            text.deleteChar();
-        }
+        int start = renderEngine.boxStart;
+        String ans = text.deleteRange(start, renderEngine.boxEnd);
+        text.setCurrentPosition(start);
 
         renderEngine.removeSelectionBox();
 
@@ -238,14 +307,12 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
     }
 
     private void deleteCurrent() {
-        Node toDelete = text.currentNode;
-        Text currentText = toDelete.character;
-        if (currentText == null)
+        if (text.currentPosition == 0)
             return;
         else {
+            char deleted = text.charAt(text.currentPosition - 1);
             text.deleteChar();
-            textRoot.getChildren().remove(currentText);
-            if (!currentText.getText().equals("\n"))
+            if (deleted != '\n')
                 renderEngine.render(true);
             else
                 renderEngine.render(false);
@@ -255,44 +322,42 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
 
     private void addCharAfterCurrent(String characterTyped) {
         if (characterTyped.equals("\r"))
-            text.addChar('\n');
+            addCharAfterCurrent('\n');
         else
-            text.addChar(characterTyped.charAt(0));
-        textRoot.getChildren().add(text.currentNode.character);
-        renderEngine.render(false);
-        renderEngine.cursorAppear();
+            addCharAfterCurrent(characterTyped.charAt(0));
     }
 
-    private void addNodeAfterCurrent(Node n) {
-        text.addNode(n);
-        textRoot.getChildren().add(text.currentNode.character);
+    private void addCharAfterCurrent(char c) {
+        text.addChar(c);
         renderEngine.render(false);
         renderEngine.cursorAppear();
     }
 
     private void handleUpArrow() {
 
-        if(renderEngine.boxes.size() != 0) {
-            text.setCurrentNode(renderEngine.boxStartNode.pre);
+        if(renderEngine.hasSelection()) {
+            text.setCurrentPosition(renderEngine.boxStart);
             renderEngine.removeSelectionBox();
             renderEngine.render(true);
         }
 
+        // the row of the cursor has to be the one on screen
+        renderEngine.flush();
         Cursor cursor = renderEngine.cursor;
         int row = renderEngine.getRowIndex(cursor.getY()) - 1;
 
         if(row == -1) {
             // at the first line
-            text.setCurrentNode(text.head);
+            text.setCurrentPosition(0);
             renderEngine.render(false);
         } else {
 
-            Node startNode = renderEngine.getFirstNodeOfTheRow(row);
-            Node endNode = renderEngine.getFirstNodeOfTheRow(row + 1);
-            if(endNode == null)
-                endNode = text.tail;
+            int start = renderEngine.getFirstCharOfTheRow(row);
+            int end = renderEngine.getFirstCharOfTheRow(row + 1);
+            if(end == -1)
+                end = text.size();
 
-            renderEngine.searchAndRenderClosestNodeInARow(startNode, endNode, renderEngine.cursor.getX());
+            renderEngine.searchAndRenderClosestPositionInARow(start, end, renderEngine.cursor.getX());
         }
 
         renderEngine.cursorAppear();
@@ -301,54 +366,67 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
 
     private void handleDownArrow() {
 
-        if(renderEngine.boxes.size() != 0) {
-            text.setCurrentNode(renderEngine.boxEndNode);
+        if(renderEngine.hasSelection()) {
+            text.setCurrentPosition(renderEngine.boxEnd);
             renderEngine.removeSelectionBox();
             renderEngine.render(true);
         }
 
+        // the row of the cursor has to be the one on screen
+        renderEngine.flush();
         Cursor cursor = renderEngine.cursor;
         int row = renderEngine.getRowIndex(cursor.getY()) + 1;
 
         if(row >= renderEngine.getRowListLength()) {
             // at the last line
-            text.setCurrentNode(text.tail.pre);
+            text.setCurrentPosition(text.size());
             renderEngine.render(false); // true or false doesn't matter here
         } else {
 
-            Node startNode = renderEngine.getFirstNodeOfTheRow(row);
-            Node endNode = renderEngine.getFirstNodeOfTheRow(row + 1);
-            if(endNode == null)
-                endNode = text.tail;
+            int start = renderEngine.getFirstCharOfTheRow(row);
+            int end = renderEngine.getFirstCharOfTheRow(row + 1);
+            if(end == -1)
+                end = text.size();
 
-            renderEngine.searchAndRenderClosestNodeInARow(startNode, endNode, renderEngine.cursor.getX());
+            renderEngine.searchAndRenderClosestPositionInARow(start, end, renderEngine.cursor.getX());
         }
 
         renderEngine.cursorAppear();
     }
 
-    public void redoUndoHandler(Deque<Info> get, Deque<Info> to) {
+    // undo or redo one action: pop Infos until the start of the action, applying each and pushing
+    // what reverses it onto the other stack
+    private void redoUndoHandler(History get, History to) {
+
+        boolean moveOn = false;
+        Info cur;
+
+        do {
+            if(get.peek() == null)
+                return;
+
+            cur = get.pop();
+            Info newInfo = apply(cur);
+
+            if(moveOn)
+                newInfo.addChild();
+            to.push(newInfo);
+
+            moveOn = true;
+        } while(cur.notDone);
 
-        redoUndoHandlerHelper(get, to, false);
+        // whatever is on top now was not just typed, so don't let new typing grow it
+        if(undoStack.peek() != null)
+            undoStack.peek().open = false;
 
     }
 
     private void copy() {
-        if(renderEngine.boxes.size() == 0)
+        if(!renderEngine.hasSelection())
             return;
 
-        // build string:
-        Node iter = renderEngine.boxStartNode;
-        Node end = renderEngine.boxEndNode.next; // loop end condition
-
-        StringBuilder sb = new StringBuilder();
-        while (iter != end) {
-            sb.append(iter.character.getText());
-            iter = iter.next;
-        }
-
         ClipboardContent content = new ClipboardContent();
-        content.putString(sb.toString());
+        content.putString(text.getText(renderEngine.boxStart, renderEngine.boxEnd));
         clipboard.setContent(content);
 
     }
@@ -356,102 +434,112 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
     private void paste() {
 
         String toPaste = clipboard.getString();
+        if(toPaste == null || toPaste.isEmpty())
+            return;
+        toPaste = toPaste.replace('\r', '\n');
 
-        List<Node> nodes = deleteSelectedRegion();
-        Info addBackNodes = new Info(text.currentNode, nodes, true);
-        addToUndoStack(addBackNodes);
-
-        for(char c : toPaste.toCharArray()) {
+        String chars = deleteSelectedRegion();
+        boolean replaced = !chars.isEmpty();
+        if(replaced)
+            addToUndoStack(new Info(text.currentPosition, chars, true));
 
-            if (c == '\r')
-                text.addChar('\n');
-            else
-                text.addChar(c);
-            textRoot.getChildren().add(text.currentNode.character);
+        text.addChars(toPaste);
 
-            Info deleteChar = new Info(text.currentNode, false);
-            deleteChar.addChild();
-            addToUndoStack(deleteChar);
-        }
+        Info deleteChars = new Info(text.currentPosition, toPaste, false);
+        if(replaced)
+            deleteChars.addChild();
+        addToUndoStack(deleteChars);
+        redoStack.clear();
 
         renderEngine.render(false);
         renderEngine.cursorAppear();
 
     }
 
-    private void redoUndoHandlerHelper(Deque<Info> get, Deque<Info> to, boolean moveOn) {
+    // Put chars in place of [start, end) as one action, the way paste replaces a selection: a single
+    // delete and a single insert, one undo for both, and one render after them
+    public void replace(int start, int end, CharSequence chars) {
 
-        if(get.peek() == null)
-            return;
+        renderEngine.removeSelectionBox();
+        String removed = text.deleteRange(start, end);
+        text.insert(start, chars);
+        text.setCurrentPosition(start + chars.length());
+
+        if(!removed.isEmpty())
+            addToUndoStack(new Info(start, removed, true));
+        if(chars.length() > 0) {
+            Info deleteChars = new Info(text.currentPosition, chars, false);
+            if(!removed.isEmpty())
+                deleteChars.addChild();
+            addToUndoStack(deleteChars);
+        }
+        redoStack.clear();
 
-        Info cur = get.pop();
+        renderEngine.render(false);
+        renderEngine.cursorAppear();
 
-        Info newInfo;
+    }
 
-        if(cur.add) {
-            if(cur.nodes == null) {
-                text.setCurrentNode(cur.position);
-                addNodeAfterCurrent(cur.toAdd);
-                newInfo = new Info(text.currentNode, false);
-            } else {
-                text.setCurrentNode(cur.position);
-                for(Node n : cur.nodes) {
-                    text.addNode(n);
-                    textRoot.getChildren().add(text.currentNode.character);
-                }
-                renderEngine.render(false);
-                renderEngine.cursorAppear();
+    // ask for a line number and put the cursor at the start of that line
+    private void goToLine() {
 
-                newInfo = new Info(text.currentNode, cur.nodes, false);
-            }
-        } else {
-            if(cur.nodes == null) {
-                text.setCurrentNode(cur.position);
-                deleteCurrent();
-
-                newInfo = new Info(text.currentNode, cur.position, true);
-            } else {
-                text.setCurrentNode(cur.position);
-                int l = cur.nodes.size();
-                for(int i=0; i<l; i++) {
-                    Node tmp = text.currentNode;
-                    textRoot.getChildren().remove(tmp.character);
-                    text.deleteChar();
-                }
-                if (text.currentNode != text.head && !text.currentNode.character.getText().equals("\n"))
-                    renderEngine.render(true);
-                else
-                    renderEngine.render(false);
-                renderEngine.cursorAppear();
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Go to line");
+        dialog.setHeaderText(null);
+        dialog.setContentText("Line:");
+        Optional<String> answer = dialog.showAndWait();
+        if(!answer.isPresent())
+            return;
 
-                newInfo = new Info(text.currentNode, cur.nodes, true);
-            }
+        int line;
+        try {
+            line = Integer.parseInt(answer.get().trim());
+        } catch (NumberFormatException e) {
+            System.out.println("not a line number: " + answer.get());
+            return;
         }
 
-        if(moveOn)
-            newInfo.addChild();
-
-        to.push(newInfo);
+        LineIndex lines = text.getLines();
+        line = Math.max(1, Math.min(line, lines.lineCount()));
 
-        if(cur.notDone) {
-            redoUndoHandlerHelper(get, to, true);
-        }
+        renderEngine.removeSelectionBox();
+        text.setCurrentPosition(lines.lineStart(line - 1));
+        renderEngine.renderCursor(true);
+        renderEngine.cursorAppear();
 
     }
 
-    // maintain a capacity of stackSize
-    private void addToUndoStack(Info i) {
+    // do what cur says and return the Info that reverses it
+    private Info apply(Info cur) {
 
-        int size = 0;
+        text.setCurrentPosition(cur.position);
 
-        for(Info info : undoStack) {
-            if(!info.notDone)
-                size++;
+        if(cur.add) {
+            text.addChars(cur.chars);
+            renderEngine.render(false);
+            renderEngine.cursorAppear();
+
+            return new Info(text.currentPosition, cur.chars, false);
+        } else {
+            int start = cur.position - cur.chars.length();
+            text.delete(start, cur.chars.length());
+            text.setCurrentPosition(start);
+            if (text.currentPosition != 0 && text.charAt(text.currentPosition - 1) != '\n')
+                renderEngine.render(true);
+            else
+                renderEngine.render(false);
+            renderEngine.cursorAppear();
+
+            return new Info(text.currentPosition, cur.chars, true);
         }
 
-        if(size >= 100)
-            undoStack.removeLast();
+    }
 
+    // a new action starts, so the one below stops growing
+    private void addToUndoStack(Info i) {
+        Info last = undoStack.peek();
+        if(last != null)
+            last.open = false;
         undoStack.push(i);
     }
 
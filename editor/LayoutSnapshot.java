@@ -0,0 +1,30 @@
+package editor;
+
+// The rows of a whole text wrapped by the layout thread, never changed once it is handed over. It
+// belongs to the snapshot it was made from and to the width and font of its wrapper.
+public class LayoutSnapshot {
+
+    private final int[] rowStarts;
+    private final GlyphMetrics metrics;
+    private final int rightEdge;
+
+    LayoutSnapshot(int[] rowStarts, GlyphMetrics metrics, int rightEdge) {
+        this.rowStarts = rowStarts;
+        this.metrics = metrics;
+        this.rightEdge = rightEdge;
+    }
+
+    public GlyphMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getRightEdge() {
+        return rightEdge;
+    }
+
+    // a RowIndex of its own for the FX thread to keep editing
+    public RowIndex toRowIndex() {
+        return new RowIndex(rowStarts.clone());
+    }
+
+}
@@ -0,0 +1,153 @@
+package editor;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+
+// Wraps a whole text on a background thread so that a new width or font on a big file doesn't hold up
+// the FX thread. It works on a snapshot, so the document can be edited meanwhile.
+//
+// Paragraphs wrap independently of each other, so the text is cut at newlines into chunks that the
+// cores of the common ForkJoin pool wrap at the same time. A prefix sum over the row counts of the
+// chunks then gives each chunk the index, and so the y, of its first row.
+public class LayoutWorker {
+
+    // a chunk ends at the first newline after this many characters
+    private static final int CHUNK_CHARS = 64 * 1024;
+
+    private final ThreadPoolExecutor executor;
+    // the wrapper of the last layout started, only touched on the FX thread
+    private LineWrapper running;
+
+    public LayoutWorker() {
+        executor = Workers.singleThread("layout", true);
+    }
+
+    // wrap snapshot with wrapper and give the rows to done on the FX thread, unless cancel() or
+    // another layout() is called before they get there
+    public void layout(TextSnapshot snapshot, LineWrapper wrapper, Consumer<LayoutSnapshot> done) {
+        cancel();
+        running = wrapper;
+
+        executor.execute(() -> {
+            if(wrapper.isCancelled())
+                return;
+
+            int[] rowStarts;
+            try {
+                rowStarts = wrapChunks(snapshot, wrapper);
+            } catch (CancellationException e) {
+                return;
+            }
+
+            LayoutSnapshot layout = new LayoutSnapshot(rowStarts, wrapper.getMetrics(), wrapper.getRightEdge());
+            Platform.runLater(() -> {
+                if(!wrapper.isCancelled())
+                    done.accept(layout);
+            });
+        });
+    }
+
+    public void cancel() {
+        if(running != null)
+            running.cancel();
+        running = null;
+    }
+
+    private static int[] wrapChunks(TextSnapshot text, LineWrapper wrapper) {
+        if(!Workers.worthSplitting(text.length(), CHUNK_CHARS)) {
+            RowIndex rows = new RowIndex();
+            wrapper.wrapParagraphs(text, 0, text.length(), rows);
+            return rows.toArray();
+        }
+
+        int[] bounds = chunkBounds(text);
+        int chunks = bounds.length - 1;
+
+        RowIndex[] rows = new RowIndex[chunks];
+        ForkJoinPool.commonPool().invoke(new WrapTask(text, wrapper, bounds, rows, 0, chunks));
+
+        // firstRow[i] is the row chunk i starts at
+        int[] firstRow = new int[chunks + 1];
+        for(int i = 0; i < chunks; i++)
+            firstRow[i + 1] = firstRow[i] + rows[i].size();
+
+        int[] rowStarts = new int[firstRow[chunks]];
+        for(int i = 0; i < chunks; i++) {
+            int[] chunk = rows[i].toArray();
+            System.arraycopy(chunk, 0, rowStarts, firstRow[i], chunk.length);
+        }
+        return rowStarts;
+    }
+
+    // where the chunks start, plus the end of the text: 0, then right after the first newline at or
+    // after every CHUNK_CHARS characters
+    private static int[] chunkBounds(CharSequence text) {
+        int size = text.length();
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+
+        int from = CHUNK_CHARS;
+        while(from < size) {
+            while(from < size && text.charAt(from - 1) != '\n')
+                from++;
+            if(from == size)
+                break;
+
+            bounds.add(from);
+            from += CHUNK_CHARS;
+        }
+        bounds.add(size);
+
+        int[] result = new int[bounds.size()];
+        for(int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
+    }
+
+    // wraps the chunks in [from, to), splitting the range in halves until it is one chunk
+    private static class WrapTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence text;
+        private final LineWrapper wrapper;
+        private final int[] bounds;
+        private final RowIndex[] rows;
+        private final int from;
+        private final int to;
+
+        WrapTask(CharSequence text, LineWrapper wrapper, int[] bounds, RowIndex[] rows, int from, int to) {
+            this.text = text;
+            this.wrapper = wrapper;
+            this.bounds = bounds;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new WrapTask(text, wrapper, bounds, rows, from, mid), new WrapTask(text, wrapper, bounds, rows, mid, to));
+                return;
+            }
+
+            // a chunk is small, so looking at the flag once per chunk is enough
+            if(wrapper.isCancelled())
+                throw new CancellationException();
+
+            RowIndex chunkRows = new RowIndex();
+            wrapper.copy().wrapParagraphs(text, bounds[from], bounds[to], chunkRows);
+            rows[from] = chunkRows;
+        }
+    }
+
+}
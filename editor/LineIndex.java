@@ -0,0 +1,73 @@
+package editor;
+
+// Where every line of a TextBuffer starts, a line being what ends with a '\n' rather than a row on
+// screen. The starts are kept in a RowIndex and catch up with the edits only when a question is asked:
+// the lines inside the edited region are found again and the ones after it are shifted all at once, so
+// going to a line or finding the line of a position is O(log lines) however big the document is.
+public class LineIndex {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private final TextBuffer text;
+    // the edits the starts haven't caught up with
+    private final ChangeRegion change;
+    private final RowIndex starts = new RowIndex();
+    private final RowIndex found = new RowIndex();
+    private final char[] block = new char[BLOCK_SIZE];
+
+    public LineIndex(TextBuffer text) {
+        this.text = text;
+        change = text.trackChanges();
+        starts.add(0);
+        findLines(0, text.size(), starts);
+    }
+
+    // the number of lines, an empty text or one ending with a '\n' counts the empty line after it too
+    public int lineCount() {
+        update();
+        return starts.size();
+    }
+
+    // the position of the first character of line, counting from 0
+    public int lineStart(int line) {
+        update();
+        return starts.get(line);
+    }
+
+    // the line holding the character at position
+    public int lineOf(int position) {
+        update();
+        return starts.rowOf(position);
+    }
+
+    // how far position is from the start of its line
+    public int columnOf(int position) {
+        return position - lineStart(lineOf(position));
+    }
+
+    private void update() {
+        if(!change.changed)
+            return;
+
+        // [start, oldEnd) became [start, oldEnd + delta): the lines starting right after a '\n' in it
+        // are the ones the edits could have taken away or added
+        int from = starts.firstRowFrom(change.start + 1);
+        int to = starts.firstRowFrom(change.oldEnd + 1);
+        found.clear();
+        findLines(change.start, change.oldEnd + change.delta, found);
+        starts.replace(from, to, found, change.delta);
+        change.clear();
+    }
+
+    // add where the lines after the '\n's in [start, end) start
+    private void findLines(int start, int end, RowIndex lines) {
+        for(int from = start; from < end; from += BLOCK_SIZE) {
+            int to = Math.min(end, from + BLOCK_SIZE);
+            text.getChars(from, to, block, 0);
+            for(int i = from; i < to; i++)
+                if(block[i - from] == '\n')
+                    lines.add(i + 1);
+        }
+    }
+
+}
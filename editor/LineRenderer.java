@@ -0,0 +1,137 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One Text per visible row, so the scene graph holds as many nodes as there are rows on screen rather
+// than characters. A Text lays out its characters by itself, at their unrounded widths, so each line
+// keeps the x of its positions worked out the same way and the cursor, the selection and hit testing
+// use those instead of the rounded widths the rows were wrapped with.
+public class LineRenderer extends TextRenderer {
+
+    private static class Line {
+        final Text text;
+        Font font;
+        // the characters of the row, the new line at its end included, that text and offsets are for
+        int length;
+        int[] offsets = new int[0];
+
+        Line(Text text) {
+            this.text = text;
+        }
+    }
+
+    private final Group lineRoot = new Group();
+    private final List<Line> linePool = new ArrayList<>();
+    // the first usedLines of the pool show the rows from firstRow on
+    private int usedLines;
+    private int firstRow;
+    // false from the time the rows change until they are drawn again
+    private boolean linesValid;
+    private char[] chars = new char[256];
+
+    public LineRenderer(RenderEngine engine, TextBuffer list) {
+        super(engine, list);
+    }
+
+    @Override
+    public Node getNode() {
+        return lineRoot;
+    }
+
+    @Override
+    public void rowsChanged() {
+        super.rowsChanged();
+        linesValid = false;
+    }
+
+    @Override
+    public void draw(int firstRow, int lastRow) {
+        Font font = engine.getFont();
+
+        int used = 0;
+        for(int row = firstRow; row <= lastRow; row++) {
+            Line line = getLine(used++, font);
+            int start = engine.getFirstCharOfTheRow(row);
+            int end = engine.getRowEnd(row);
+
+            // the new line isn't drawn, it would only make the Text a row taller
+            int shown = end - start;
+            if(shown > 0 && list.charAt(end - 1) == '\n')
+                shown--;
+            if(chars.length < shown)
+                chars = new char[Math.max(shown, chars.length * 2)];
+            list.getChars(start, start + shown, chars, 0);
+
+            // most rows are the same as in the last frame, only the edited one needs a new String
+            if(line.font != font || line.length != end - start || !sameText(line.text.getText(), shown)) {
+                line.text.setText(new String(chars, 0, shown));
+                if(line.text.getFont() != font)
+                    line.text.setFont(font);
+                line.font = font;
+                line.length = end - start;
+                if(line.offsets.length < line.length + 1)
+                    line.offsets = new int[line.length + 1];
+                measure(start, end, line.offsets);
+            }
+            line.text.setX(engine.leftMargin);
+            line.text.setY(engine.getRowY(row));
+        }
+
+        if(used < usedLines)
+            lineRoot.getChildren().remove(used, usedLines);
+        else if(used > usedLines)
+            for(int i = usedLines; i < used; i++)
+                lineRoot.getChildren().add(linePool.get(i).text);
+        usedLines = used;
+        this.firstRow = firstRow;
+        linesValid = true;
+    }
+
+    // the lines on screen already know their offsets
+    @Override
+    public int[] getOffsets(int row) {
+        if(linesValid && row >= firstRow && row < firstRow + usedLines)
+            return linePool.get(row - firstRow).offsets;
+
+        return super.getOffsets(row);
+    }
+
+    // the x of every position in [start, end], where a Text starting at the left margin puts them
+    @Override
+    protected void measure(int start, int end, int[] offsets) {
+        GlyphMetrics metrics = engine.getMetrics();
+        double x = engine.leftMargin;
+        for(int i = start; i < end; i++) {
+            offsets[i - start] = (int)Math.round(x);
+            x += metrics.advance(list.charAt(i));
+        }
+        offsets[end - start] = (int)Math.round(x);
+    }
+
+    private boolean sameText(String s, int length) {
+        if(s.length() != length)
+            return false;
+        for(int i = 0; i < length; i++)
+            if(s.charAt(i) != chars[i])
+                return false;
+        return true;
+    }
+
+    private Line getLine(int index, Font font) {
+        if(index == linePool.size()) {
+            Text t = new Text(0, 0, "");
+            t.setTextOrigin(VPos.TOP);
+            t.setFont(font);
+            linePool.add(new Line(t));
+        }
+        return linePool.get(index);
+    }
+
+}
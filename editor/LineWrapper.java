@@ -0,0 +1,215 @@
+package editor;
+
+import java.util.concurrent.CancellationException;
+
+// Breaks text into rows no wider than the window: a word that does not fit goes to the next row, a
+// word wider than a whole row is cut where it reaches the right margin, and spaces stay at the end of
+// the row they follow. It only reads characters and widths, so the layout thread can run it over a
+// snapshot while the FX thread runs its own instance over the document.
+public class LineWrapper {
+
+    // how many characters go by between two looks at the cancel flag
+    private static final int CANCEL_CHECK_MASK = (1 << 16) - 1;
+    // shorter paragraphs are wrapped again instead of looked up, hashing them costs about as much
+    private static final int MIN_CACHED_CHARS = 128;
+
+    private final GlyphMetrics metrics;
+    private final int leftMargin;
+    // no character may end to the right of this
+    private final int rightEdge;
+    // rows of paragraphs wrapped before
+    private final WrapCache cache;
+
+    private CharSequence text;
+    private RowIndex rows;
+    private int xPosition;
+
+    private volatile boolean cancelled;
+
+    public LineWrapper(GlyphMetrics metrics, int leftMargin, int rightEdge, WrapCache cache) {
+        this.metrics = metrics;
+        this.leftMargin = leftMargin;
+        this.rightEdge = rightEdge;
+        this.cache = cache;
+    }
+
+    public GlyphMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getRightEdge() {
+        return rightEdge;
+    }
+
+    // another wrapper for the same width and font, for another thread
+    public LineWrapper copy() {
+        return new LineWrapper(metrics, leftMargin, rightEdge, cache);
+    }
+
+    // make a wrap running on another thread throw a CancellationException
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Wrap text starting at from, which has to be the start of a paragraph, into rows.
+    // Stops before the first row starting at or after stableFrom that also starts a row of oldRows
+    // (from oldRow on, shifted by delta) and returns the index of that old row, or -1 when it ran to
+    // the end of the text. oldRows is never read when stableFrom is Integer.MAX_VALUE
+    public int wrap(CharSequence text, int from, int stableFrom, RowIndex oldRows, int oldRow, int delta, RowIndex rows) {
+        rows.clear();
+        return wrap(text, from, text.length(), stableFrom, oldRows, oldRow, delta, rows);
+    }
+
+    // Wrap only the paragraphs in [from, to): from has to start a paragraph and to has to be right
+    // after a '\n' or the end of the text. Gives the same rows the whole text would have there.
+    // The long paragraphs are looked up in the cache first, and the ones that are not found are
+    // added to it
+    public void wrapParagraphs(CharSequence text, int from, int to, RowIndex rows) {
+        rows.clear();
+
+        // the short paragraphs since the last long one, wrapped together
+        int shortFrom = from;
+        int start = from;
+        while(start < to) {
+            // find the end of the paragraph and hash it (FNV-1a) on the way
+            long hash = 0xcbf29ce484222325L;
+            int end = start;
+            while(end < to) {
+                char c = text.charAt(end++);
+                if(c == '\n')
+                    break;
+                hash = (hash ^ c) * 0x100000001b3L;
+            }
+
+            int length = end - start;
+            if(length >= MIN_CACHED_CHARS) {
+                if(cancelled)
+                    throw new CancellationException();
+
+                wrap(text, shortFrom, start, Integer.MAX_VALUE, null, 0, 0, rows);
+
+                int[] rowStarts = cache.get(hash, length, rightEdge, metrics);
+                if(rowStarts == null) {
+                    int first = rows.size();
+                    wrap(text, start, end, Integer.MAX_VALUE, null, 0, 0, rows);
+
+                    rowStarts = new int[rows.size() - first];
+                    for(int i = 0; i < rowStarts.length; i++)
+                        rowStarts[i] = rows.get(first + i) - start;
+                    cache.put(hash, length, rightEdge, metrics, rowStarts);
+                } else {
+                    for(int rowStart : rowStarts)
+                        rows.add(start + rowStart);
+                }
+
+                shortFrom = end;
+            }
+            start = end;
+        }
+
+        wrap(text, shortFrom, to, Integer.MAX_VALUE, null, 0, 0, rows);
+    }
+
+    // adds the rows of [from, to) after the ones already in rows
+    private int wrap(CharSequence text, int from, int to, int stableFrom, RowIndex oldRows, int oldRow, int delta, RowIndex rows) {
+        this.text = text;
+        this.rows = rows;
+
+        xPosition = leftMargin;
+
+        int wordStart = -1;
+        int length = 0;
+        int checked = rows.size();
+
+        boolean start = true;
+
+        for(int i = from; i < to; i++) {
+
+            if((i & CANCEL_CHECK_MASK) == 0 && cancelled)
+                throw new CancellationException();
+
+            if(start) {
+                rows.add(i);
+                start = false;
+            }
+
+            char currentChar = text.charAt(i);
+            if(currentChar != ' ' && currentChar != '\n') {
+                if(wordStart == -1)
+                    wordStart = i;
+                length += metrics.width(currentChar);
+            } else {
+                appendWord(length, wordStart, i);
+                wordStart = -1;
+                length = 0;
+
+                if(currentChar == ' ') {
+                    // append the white space
+                    xPosition += metrics.width(currentChar);
+                } else {
+                    // '\n' have a length 0 so there's no need to update xPosition
+                    // append the new line
+                    xPosition = leftMargin;
+                    start = true;
+                }
+            }
+
+            // check whether the rows added so far line up with the old layout again
+            for(; checked < rows.size(); checked++) {
+                int rowStart = rows.get(checked);
+                if(rowStart < stableFrom)
+                    continue;
+
+                while(oldRow < oldRows.size() && oldRows.get(oldRow) + delta < rowStart)
+                    oldRow++;
+                if(oldRow < oldRows.size() && oldRows.get(oldRow) + delta == rowStart) {
+                    rows.truncate(checked);
+                    return oldRow;
+                }
+            }
+
+        }
+
+        // append the last word
+        appendWord(length, wordStart, to);
+
+        return -1;
+    }
+
+    // the word is made of the characters in [from, to)
+    private void appendWord(int wordLength, int from, int to)  {
+        if(wordLength == 0)
+            return;
+
+        if((xPosition + wordLength) <= rightEdge || xPosition == leftMargin) {
+            // append the word. No need to add to the row list cuz we have done that in the wrap function
+            appendWordHelper(from, to);
+        } else {
+            xPosition = leftMargin;
+            rows.add(from);
+            appendWordHelper(from, to);
+        }
+    }
+
+    private void appendWordHelper(int from, int to) {
+
+        for(int i = from; i < to; i++) {
+
+            int length = metrics.width(text.charAt(i));
+
+            // modify here to set right margin
+            if(xPosition + length > rightEdge) {
+                xPosition = leftMargin;
+                rows.add(i);
+            }
+
+            xPosition += length;
+        }
+
+    }
+
+}
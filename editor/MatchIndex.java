@@ -0,0 +1,77 @@
+package editor;
+
+import java.util.Arrays;
+
+// The matches of a search, [start, end) each, in the order they are in the text. They don't overlap,
+// so the ends are sorted as well as the starts and every lookup is a binary search over one of them.
+public class MatchIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int match) {
+        return starts[match];
+    }
+
+    public int end(int match) {
+        return ends[match];
+    }
+
+    // after every match already in the index
+    public void add(int start, int end) {
+        if(size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    // the matches of other, which all come after the ones in the index
+    public void addAll(MatchIndex other) {
+        for(int i = 0; i < other.size; i++)
+            add(other.starts[i], other.ends[i]);
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // the first match starting at or after position, size() when there is none
+    public int next(int position) {
+        return search(starts, position);
+    }
+
+    // the last match starting before position, -1 when there is none
+    public int previous(int position) {
+        return search(starts, position) - 1;
+    }
+
+    // the first match ending after position, which is the first one that can hold it or come after it
+    public int firstEndingAfter(int position) {
+        return search(ends, position + 1);
+    }
+
+    // the first index whose value is at least value, size when there is none
+    private int search(int[] values, int value) {
+        int low = 0;
+        int high = size;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(values[mid] < value)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+}
@@ -8,12 +8,12 @@ import javafx.scene.input.MouseEvent;
 public class MouseEventHandler implements EventHandler<MouseEvent> {
 
     private RenderEngine renderEngine;
-    private FastLinkedList text;
+    private TextBuffer text;
     private Group textRoot;
 
-    private Node startNode;
+    private int startPosition;
 
-    public MouseEventHandler(RenderEngine renderEngine, FastLinkedList text, Group textRoot) {
+    public MouseEventHandler(RenderEngine renderEngine, TextBuffer text, Group textRoot) {
         this.renderEngine = renderEngine;
         this.text = text;
         this.textRoot = textRoot;
@@ -29,73 +29,57 @@ public class MouseEventHandler implements EventHandler<MouseEvent> {
         if(eventType == MouseEvent.MOUSE_CLICKED) {
 
             // click event takes effects only when there're none selection boxes
-            if(renderEngine.boxes.size() == 0) {
+            if(!renderEngine.hasSelection()) {
                 if(!textRoot.getChildren().contains(renderEngine.cursor.cursor))
                     textRoot.getChildren().add(renderEngine.cursor.cursor);
-                getNodeNearMouse(x, y);
+                getPositionNearMouse(x, y);
             }
 
         } else if(eventType == MouseEvent.MOUSE_PRESSED) {
+            // take the keys back from the find bar
+            textRoot.requestFocus();
             renderEngine.removeSelectionBox();
-            startNode = getNodeNearMouse(x, y);
+            startPosition = getPositionNearMouse(x, y);
         } else if(eventType == MouseEvent.MOUSE_DRAGGED || eventType == MouseEvent.MOUSE_RELEASED) {
-            Node startNode = this.startNode;
-            Node endNode = getNodeNearMouse(x, y);
-
-            // special case
-            if(startNode != text.head && endNode != text.head) {
-                // check which is at front
-                double startX = startNode.character.getX();
-                double startY = startNode.character.getY();
-                double endX = endNode.character.getX();
-                double endY = endNode.character.getY();
-                if ((startY > endY) || (startY == endY && startX > endX)) {
-                    // swap
-                    Node tmp = startNode;
-                    startNode = endNode;
-                    endNode = tmp;
-                }
-            } else if(startNode != text.head && endNode == text.head) {
-                //swap
-                Node tmp = startNode;
-                startNode = endNode;
-                endNode = tmp;
-            }
+            int endPosition = getPositionNearMouse(x, y);
 
-            renderEngine.renderSelectionBox(startNode.next, endNode);
+            // positions are offsets in the document, so the one at front is simply the smaller one
+            renderEngine.renderSelectionBox(Math.min(startPosition, endPosition), Math.max(startPosition, endPosition));
 
         }
     }
 
-    // return the nearest node and render it
-    private Node getNodeNearMouse(double x, double y) {
+    // return the nearest cursor position and render it
+    private int getPositionNearMouse(double x, double y) {
+        // hit test against the rows of the current text, not the ones of the last frame
+        renderEngine.flush();
         int row = renderEngine.getRowIndex(y + renderEngine.scrollBar.getValue());
         int rowListLength = renderEngine.getRowListLength();
 
         // empty text, do nothing
         if (rowListLength == 0)
-            return text.head;
+            return 0;
 
         // deal with special case where cursor is out of bound
         if (row < 0)
             row = 0;
         else if (row >= rowListLength) {
-            if (text.tail.pre.character.getText().equals("\n")) {
+            if (text.charAt(text.size() - 1) == '\n') {
                 // special case
-                text.setCurrentNode(text.tail.pre);
+                text.setCurrentPosition(text.size());
                 renderEngine.renderCursor(false); // true or false does't matter
-                return text.tail.pre;
+                return text.size();
             } else {
                 row = rowListLength - 1;
             }
         }
 
-        Node startNode = renderEngine.getFirstNodeOfTheRow(row);
-        Node endNode = renderEngine.getFirstNodeOfTheRow(row + 1);
-        if (endNode == null)
-            endNode = text.tail;
+        int start = renderEngine.getFirstCharOfTheRow(row);
+        int end = renderEngine.getFirstCharOfTheRow(row + 1);
+        if (end == -1)
+            end = text.size();
 
-        return renderEngine.searchAndRenderClosestNodeInARow(startNode, endNode, x);
+        return renderEngine.searchAndRenderClosestPositionInARow(start, end, x);
     }
 
 }
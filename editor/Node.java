@@ -1,15 +0,0 @@
-package editor;
-
-import javafx.scene.text.Text;
-
-class Node {
-
-    Text character;
-    Node pre;
-    Node next;
-
-    public Node(Text t) {
-        character = t;
-    }
-
-}
\ No newline at end of file
@@ -0,0 +1,300 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Stores the document as a piece table: the text the file was opened with is never modified,
+// every inserted character is appended to the add buffer, and the document itself is the list of
+// pieces pointing into one of the two buffers. Memory grows with the number of edits, not with the
+// number of characters.
+public class PieceTable extends TextBuffer {
+
+    private static final int INITIAL_ADD_CAPACITY = 64;
+
+    private final CharSequence original;
+    private char[] added;
+    private int addedLength;
+
+    private final List<Piece> pieces;
+    private int size;
+
+    // the piece found by the last lookup, so that walking the text in order costs O(1) per character
+    private int cachedPiece;
+    private int cachedPieceStart;
+
+    private static class Piece {
+        boolean inAdded;
+        int start;
+        int length;
+
+        Piece(boolean inAdded, int start, int length) {
+            this.inAdded = inAdded;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    public PieceTable(CharSequence original) {
+        this.original = original;
+        added = new char[INITIAL_ADD_CAPACITY];
+        addedLength = 0;
+        pieces = new ArrayList<>();
+        if(original.length() > 0)
+            pieces.add(new Piece(false, 0, original.length()));
+
+        size = original.length();
+        currentPosition = 0;
+    }
+
+    @Override
+    protected void insertChar(int position, char c) {
+        int index = splitAt(position);
+        Piece before = index > 0 ? pieces.get(index - 1) : null;
+
+        appendToAddBuffer(c);
+
+        // typing at the same spot keeps growing the last piece instead of creating a new one
+        if(before != null && before.inAdded && before.start + before.length == addedLength - 1)
+            before.length++;
+        else
+            pieces.add(index, new Piece(true, addedLength - 1, 1));
+
+        size++;
+        resetCache();
+    }
+
+    // the whole run goes to the end of the add buffer and becomes a single piece
+    @Override
+    protected void insertChars(int position, CharSequence chars) {
+        int index = splitAt(position);
+        Piece before = index > 0 ? pieces.get(index - 1) : null;
+
+        int length = chars.length();
+        int start = addedLength;
+        ensureAddCapacity(length);
+        copyChars(chars, 0, length, added, start);
+        addedLength += length;
+
+        if(before != null && before.inAdded && before.start + before.length == start)
+            before.length += length;
+        else
+            pieces.add(index, new Piece(true, start, length));
+
+        size += length;
+        resetCache();
+    }
+
+    @Override
+    protected void deleteChars(int position, int length) {
+        if(length <= 0)
+            return;
+
+        int from = splitAt(position);
+        int to = splitAt(position + length);
+        pieces.subList(from, to).clear();
+
+        size -= length;
+        resetCache();
+    }
+
+    @Override
+    public char charAt(int position) {
+        if(position < 0 || position >= size)
+            throw new IndexOutOfBoundsException("position " + position + " out of " + size);
+
+        findPiece(position);
+        Piece p = pieces.get(cachedPiece);
+        int offset = p.start + position - cachedPieceStart;
+        return p.inAdded ? added[offset] : original.charAt(offset);
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        if(start >= end)
+            return;
+
+        findPiece(start);
+        int piece = cachedPiece;
+        int pieceStart = cachedPieceStart;
+        while(start < end) {
+            Piece p = pieces.get(piece);
+            int count = Math.min(end, pieceStart + p.length) - start;
+            int from = p.start + start - pieceStart;
+
+            if(p.inAdded)
+                System.arraycopy(added, from, dst, dstBegin, count);
+            else
+                copyChars(original, from, count, dst, dstBegin);
+
+            start += count;
+            dstBegin += count;
+            pieceStart += p.length;
+            piece++;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // The original buffer never changes and the add buffer is only ever appended to, so a copy of the
+    // piece list is all a snapshot needs: O(pieces), whatever the size of the text
+    @Override
+    public TextSnapshot snapshot() {
+        int count = pieces.size();
+        int[] offsets = new int[count];
+        int[] starts = new int[count];
+        boolean[] inAdded = new boolean[count];
+
+        int offset = 0;
+        for(int i = 0; i < count; i++) {
+            Piece p = pieces.get(i);
+            offsets[i] = offset;
+            starts[i] = p.start;
+            inAdded[i] = p.inAdded;
+            offset += p.length;
+        }
+
+        return new PieceSnapshot(original, added, offsets, starts, inAdded, size);
+    }
+
+    @Override
+    public void debug() {
+        System.out.println("size: " + size + " pieces: " + pieces.size() + " cursor: " + currentPosition);
+        for(Piece p : pieces)
+            System.out.println((p.inAdded ? "add " : "original ") + p.start + " +" + p.length);
+    }
+
+    private static class PieceSnapshot implements TextSnapshot {
+
+        private final CharSequence original;
+        private final char[] added;
+        // where each piece starts in the text, where it starts in its buffer, and which buffer that is
+        private final int[] offsets;
+        private final int[] starts;
+        private final boolean[] inAdded;
+        private final int length;
+
+        PieceSnapshot(CharSequence original, char[] added, int[] offsets, int[] starts, boolean[] inAdded, int length) {
+            this.original = original;
+            this.added = added;
+            this.offsets = offsets;
+            this.starts = starts;
+            this.inAdded = inAdded;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if(index < 0 || index >= length)
+                throw new IndexOutOfBoundsException("index " + index + " out of " + length);
+
+            int piece = pieceOf(index);
+            int offset = starts[piece] + index - offsets[piece];
+            return inAdded[piece] ? added[offset] : original.charAt(offset);
+        }
+
+        @Override
+        public void getChars(int start, int end, char[] dst, int dstBegin) {
+            int piece = pieceOf(start);
+            while(start < end) {
+                int pieceEnd = piece + 1 < offsets.length ? offsets[piece + 1] : length;
+                int count = Math.min(end, pieceEnd) - start;
+                int from = starts[piece] + start - offsets[piece];
+
+                if(inAdded[piece])
+                    System.arraycopy(added, from, dst, dstBegin, count);
+                else
+                    copyChars(original, from, count, dst, dstBegin);
+
+                start += count;
+                dstBegin += count;
+                piece++;
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+
+        // the last piece starting at or before index
+        private int pieceOf(int index) {
+            int low = 0;
+            int high = offsets.length - 1;
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(offsets[mid] <= index)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            return low;
+        }
+    }
+
+    // make sure a piece starts exactly at position and return its index
+    private int splitAt(int position) {
+        if(position < 0 || position > size)
+            throw new IndexOutOfBoundsException("position " + position + " out of " + size);
+
+        if(position == size)
+            return pieces.size();
+
+        findPiece(position);
+        int index = cachedPiece;
+        if(position == cachedPieceStart)
+            return index;
+
+        Piece p = pieces.get(index);
+        int leftLength = position - cachedPieceStart;
+        pieces.add(index + 1, new Piece(p.inAdded, p.start + leftLength, p.length - leftLength));
+        p.length = leftLength;
+
+        return index + 1;
+    }
+
+    // point the cache at the piece holding position, walking from wherever the last lookup ended
+    private void findPiece(int position) {
+        while(position < cachedPieceStart) {
+            cachedPiece--;
+            cachedPieceStart -= pieces.get(cachedPiece).length;
+        }
+        while(position >= cachedPieceStart + pieces.get(cachedPiece).length) {
+            cachedPieceStart += pieces.get(cachedPiece).length;
+            cachedPiece++;
+        }
+    }
+
+    private void resetCache() {
+        cachedPiece = 0;
+        cachedPieceStart = 0;
+    }
+
+    private void appendToAddBuffer(char c) {
+        ensureAddCapacity(1);
+        added[addedLength++] = c;
+    }
+
+    private void ensureAddCapacity(int needed) {
+        if(addedLength + needed > added.length) {
+            char[] bigger = new char[Math.max(added.length * 2, addedLength + needed)];
+            System.arraycopy(added, 0, bigger, 0, addedLength);
+            added = bigger;
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package editor;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.control.ScrollBar;
+import javafx.stage.Stage;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+// Types into a generated document and prints how much the FX thread allocates per keystroke, layout and
+// drawing of the visible rows included, and the heap in use once it is done. Run it before and after
+// a change to the renderer, or once per renderer:
+//   java -Deditor.renderer=canvas editor.RenderBenchmark [characters] [keystrokes]
+public class RenderBenchmark extends Application {
+
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do ";
+
+    @Override
+    public void start(Stage stage) {
+        List<String> args = getParameters().getRaw();
+        int characters = args.size() > 0 ? Integer.parseInt(args.get(0)) : 100000;
+        int keystrokes = args.size() > 1 ? Integer.parseInt(args.get(1)) : 5000;
+
+        StringBuilder sb = new StringBuilder(characters);
+        for(int i = 0; sb.length() < characters; i++)
+            sb.append(i % 12 == 11 ? "\n" : WORDS);
+
+        TextBuffer text = TextBuffer.create(sb.toString());
+        Group textRoot = new Group();
+        RenderEngine engine = new RenderEngine(text, 500, 600, new Cursor(textRoot), new ScrollBar(), textRoot);
+        text.setCurrentPosition(text.size() / 2);
+
+        // once to warm up, once to measure
+        type(text, engine, keystrokes);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+
+        type(text, engine, keystrokes);
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        System.out.println(keystrokes + " keystrokes into " + characters + " characters: " + bytes / keystrokes
+                + " bytes and " + (millis * 1000 / keystrokes) + " us per keystroke");
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.println(System.getProperty("editor.renderer", "glyphs") + " renderer, heap in use: "
+                + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + " KB");
+
+        Platform.exit();
+    }
+
+    // what a key press does, with the frame drawn right after it
+    private static void type(TextBuffer text, RenderEngine engine, int keystrokes) {
+        for(int i = 0; i < keystrokes; i++) {
+            text.addChar(WORDS.charAt(i % WORDS.length()));
+            engine.render(false);
+            engine.cursorAppear();
+            engine.flush();
+        }
+    }
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+
+}
@@ -1,6 +1,6 @@
 package editor;
 
-import javafx.geometry.VPos;
+import javafx.animation.AnimationTimer;
 import javafx.scene.Group;
 import javafx.scene.control.ScrollBar;
 import javafx.scene.paint.Color;
@@ -9,12 +9,18 @@ import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 public class RenderEngine {
 
-    private FastLinkedList list;
+    // rows drawn above and below the window so that small scrolls don't show empty space
+    private static final int OVERSCAN_ROWS = 2;
+    // a text this long or longer is wrapped on the layout thread when the width or the font changes
+    private static final int BACKGROUND_LAYOUT_CHARS = 256 * 1024;
+    // memory the rows of paragraphs wrapped at other widths and font sizes may take
+    private static final long WRAP_CACHE_BYTES = 16 * 1024 * 1024;
+
+    private TextBuffer list;
     private int windowWidth;
     private int windowHeight;
 
@@ -27,57 +33,218 @@ public class RenderEngine {
     private int fontHeight;
     private String fontName = "Verdana";
     private int fontSize = 12;
-
-    private int xPosition;
-    private int yPosition;
-
-    private List<Node> startOfEachRow;
+    private Font font;
+    private GlyphMetrics metrics;
+
+    private RowIndex startOfEachRow;
+    // false when the width or the font changed, which means every row has to be wrapped again
+    private boolean layoutValid;
+    // the edits the rows haven't caught up with
+    private ChangeRegion change;
+    // rows produced by the last call to wrap()
+    private RowIndex wrapped;
+
+    // While the layout thread wraps a big text the rows above are still kept up to date, at the new
+    // width, one edited paragraph at a time. sinceLayout collects the edits made after the snapshot it
+    // works on, so they can be applied to its rows the same way once they arrive in finishedLayout
+    private LayoutWorker layoutWorker;
+    private ChangeRegion sinceLayout;
+    private LayoutSnapshot finishedLayout;
+    private final WrapCache wrapCache = new WrapCache(WRAP_CACHE_BYTES);
     private Group textRoot;
+    // draws the characters of the rows around the window, picked with -Deditor.renderer
+    private TextRenderer renderer;
+    // The selection is drawn with a pooled Rectangle per visible row, hidden on the rows it doesn't
+    // cover: the first usedBoxes of boxes are the children of selectionRoot, for the rows from boxFirstRow
+    // on. shownStart and shownEnd are what they show, so a drag only touches the rows whose part of the
+    // selection changed. boxesStale means the rows changed under them and all of them need a look
+    private Group selectionRoot;
     List<Rectangle> boxes;
+    private int usedBoxes;
+    private int boxFirstRow;
+    private int shownStart = -1;
+    private int shownEnd = -1;
+    private boolean boxesStale;
+
+    // The matches of the find bar, highlighted the same way on the visible rows only: the first
+    // usedMatchBoxes of matchBoxes are the children of matchRoot
+    private Group matchRoot;
+    private MatchIndex matches;
+    private List<Rectangle> matchBoxes;
+    private int usedMatchBoxes;
     ScrollBar scrollBar;
 
-    Node boxStartNode;
-    Node boxEndNode;
-
-    public RenderEngine(FastLinkedList list, int width, int height, Cursor cursor, ScrollBar scrollBar, Group textRoot) {
+    // the selection covers the characters in [boxStart, boxEnd)
+    int boxStart = -1;
+    int boxEnd = -1;
+
+    // Work asked for since the last frame. Edits, key repeat, resizes and scrolls only set these and
+    // the pulse timer does the work once per frame. flush() does it right away for the code that needs
+    // the rows or the cursor to be up to date, like moving the cursor up a row or hit testing a click
+    private boolean layoutDirty;
+    private boolean cursorDirty;
+    private boolean selectionDirty;
+    private boolean matchesDirty;
+    private boolean rowsDirty;
+    private boolean revealCursor;
+    private boolean cursorAtSecondLine;
+    private boolean scheduled;
+    // other work that is done once per frame, after the rest
+    private List<Runnable> atPulse = new ArrayList<>();
+    // created on first use, the engine is built before the FX toolkit is up
+    private AnimationTimer pulse;
+
+    public RenderEngine(TextBuffer list, int width, int height, Cursor cursor, ScrollBar scrollBar, Group textRoot) {
 
         this.list = list;
         windowWidth = width;
         windowHeight = height;
         this.cursor = cursor;
-        startOfEachRow = new LinkedList<>();
+        startOfEachRow = new RowIndex();
+        wrapped = new RowIndex();
+        change = list.trackChanges();
+        layoutWorker = new LayoutWorker();
         this.scrollBar = scrollBar;
         this.textRoot = textRoot;
+        renderer = TextRenderer.create(this, list);
+        textRoot.getChildren().add(0, renderer.getNode());
+        // behind the text
+        selectionRoot = new Group();
+        textRoot.getChildren().add(0, selectionRoot);
+        // behind the selection
+        matchRoot = new Group();
+        textRoot.getChildren().add(0, matchRoot);
         boxes = new ArrayList<>();
+        matchBoxes = new ArrayList<>();
     }
 
+    // the Font and the widths are looked up again only after the font size changed
     private void updateFontHeight() {
-        Text tmp = new Text(0,0, "a");
-        tmp.setFont(Font.font(fontName, fontSize));
-        fontHeight = (int)(tmp.getLayoutBounds().getHeight() + 1);
+        if(metrics != null)
+            return;
+
+        metrics = GlyphMetrics.get(fontName, fontSize);
+        font = metrics.getFont();
+        fontHeight = metrics.getHeight();
     }
 
+    // put the cursor after the character before list.currentPosition at the next frame
     public void renderCursor(boolean cursorAtSecondLine) {
+        this.cursorAtSecondLine = cursorAtSecondLine;
+        cursorDirty = true;
+        schedule();
+    }
+
+    // scroll so that the cursor is in the window at the next frame
+    public void cursorAppear() {
+        revealCursor = true;
+        schedule();
+    }
+
+    // lay out the text again, then place the cursor and the selection, all at the next frame
+    public void render(boolean cursorAtSecondLine) {
+        layoutDirty = true;
+        selectionDirty = true;
+        renderCursor(cursorAtSecondLine);
+    }
+
+    // highlight matches at the next frame, null to stop highlighting
+    public void showMatches(MatchIndex matches) {
+        this.matches = matches;
+        renderMatches();
+    }
+
+    // the matches being highlighted changed
+    public void renderMatches() {
+        matchesDirty = true;
+        schedule();
+    }
+
+    // the window moved over the text, the rows around it need nodes at the next frame
+    public void renderVisibleRows() {
+        rowsDirty = true;
+        schedule();
+    }
+
+    // do whatever has been asked for since the last frame now
+    public void flush() {
+        if(layoutDirty) {
+            layoutDirty = false;
+            renderText();
+        }
+        if(cursorDirty) {
+            cursorDirty = false;
+            placeCursor(cursorAtSecondLine);
+        }
+        if(revealCursor) {
+            revealCursor = false;
+            scrollToCursor();
+        }
+        // the selection only has boxes on the visible rows, so it follows the scroll position too
+        if(selectionDirty || rowsDirty && boxStart != -1) {
+            selectionDirty = false;
+            drawSelectionBox();
+        }
+        if(matchesDirty || rowsDirty && matches != null) {
+            matchesDirty = false;
+            drawMatches();
+        }
+        // last, since placing the cursor may have scrolled
+        if(rowsDirty) {
+            rowsDirty = false;
+            drawVisibleRows();
+        }
+        if(!atPulse.isEmpty()) {
+            List<Runnable> tasks = atPulse;
+            atPulse = new ArrayList<>();
+            for(Runnable task : tasks)
+                task.run();
+        }
+    }
+
+    // run task at the next frame, or at the next flush() if that comes first
+    public void runAtPulse(Runnable task) {
+        atPulse.add(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if(scheduled)
+            return;
+
+        if(pulse == null) {
+            pulse = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    flush();
+                    stop();
+                    scheduled = false;
+                }
+            };
+        }
+        scheduled = true;
+        pulse.start();
+    }
+
+    private void placeCursor(boolean cursorAtSecondLine) {
         cursor.setHeight(fontHeight);
 
-        Node curNode = list.currentNode;
-        Text curText = curNode.character;
+        int position = list.currentPosition;
 
-        if(curNode == list.head)
+        if(position == 0)
             // cursor is at the head
             cursor.setPosition(leftMargin, topMargin);
         else {
 
-            Node nextNode = list.currentNode.next;
-            Text nextText = nextNode.character;
+            int row = getRowOf(position - 1);
 
-            if(curText.getText().equals("\n")) {
-                cursor.setPosition(leftMargin, (int)curText.getY() + fontHeight);
-            }else if(nextNode != list.tail && curText.getY() != nextText.getY() && cursorAtSecondLine)
-                cursor.setPosition((int)nextText.getX(), (int)nextText.getY());
-            else {
-                int x = Math.min((int) (curText.getX() + textWidth(curText)), windowWidth - rightMargin);
-                int y = (int) (curText.getY());
+            if(list.charAt(position - 1) == '\n') {
+                cursor.setPosition(leftMargin, getRowY(row) + fontHeight);
+            }else if(position < list.size() && getRowOf(position) != row && cursorAtSecondLine) {
+                cursor.setPosition(leftMargin, getRowY(row + 1));
+            } else {
+                int x = Math.min(getX(row, position), windowWidth - rightMargin);
+                int y = getRowY(row);
                 cursor.setPosition(x, y);
             }
         }
@@ -85,7 +252,7 @@ public class RenderEngine {
         // cursor.debug();
     }
 
-    public void cursorAppear() {
+    private void scrollToCursor() {
 
         int currentY = cursor.getY();
         if(currentY < scrollBar.getValue())
@@ -95,69 +262,13 @@ public class RenderEngine {
 
     }
 
-    public void render(boolean cursorAtSecondLine) {
-        renderText();
-
-        renderCursor(cursorAtSecondLine);
-
-        renderSelectionBox(boxStartNode, boxEndNode);
-    }
-
-    // modify each Text object to make it right
+    // work out where every row starts; the rows that are visible get drawn at the end of the flush
     public void renderText() {
 
         updateFontHeight();
-        startOfEachRow.clear();
-
-        xPosition = leftMargin;
-        yPosition = topMargin;
-
-        List<Node> currentWord = new LinkedList<>();
-        int length = 0;
-
-        boolean start = true;
-
-        for(Node node : list) {
-
-            Text t = node.character;
-
-            t.setTextOrigin(VPos.TOP);
-            t.setFont(Font.font(fontName, fontSize));
-
-            if(start) {
-                startOfEachRow.add(node);
-                start = false;
-            }
-
-            String currentChar = t.getText();
-            if(!currentChar.equals(" ") && !currentChar.equals("\n")) {
-                currentWord.add(node);
-                length += textWidth(t);
-            } else {
-                appendWord(length, currentWord);
-                currentWord.clear();
-                length = 0;
-
-                if(currentChar.equals(" ")) {
-                    // append the white space
-                    t.setX(xPosition);
-                    t.setY(yPosition);
-                    xPosition += textWidth(t);
-                } else if(currentChar.equals("\n")){
-                    // '\n' have a length 0 so there's no need to update xPosition
-                    t.setX(xPosition);
-                    t.setY(yPosition);
-                    // append the new line
-                    xPosition = leftMargin;
-                    yPosition += fontHeight;
-                    start = true;
-                }
-            }
-
-        }
-
-        // append the last word
-        appendWord(length, currentWord);
+        updateRows();
+        renderer.rowsChanged();
+        boxesStale = true;
 
         // set the scroll bar max to the height of the text
         int textHeight;
@@ -166,7 +277,7 @@ public class RenderEngine {
             textHeight = fontHeight;
         else {
             textHeight = fontHeight * startOfEachRow.size();
-            if(list.tail.pre.character.getText().equals("\n"))
+            if(list.charAt(list.size() - 1) == '\n')
                 textHeight += fontHeight;
         }
         scrollBar.setPrefHeight(windowHeight);
@@ -177,60 +288,184 @@ public class RenderEngine {
             scrollBar.setValue(scrollBar.getMax());
         }
 
+        rowsDirty = true;
+
         // debugStartOfEachRow();
 
     }
 
-    private void debugStartOfEachRow() {
+    private void updateRows() {
+
+        if(finishedLayout != null)
+            installLayout();
+
+        if(!layoutValid) {
+            if(list.size() < BACKGROUND_LAYOUT_CHARS) {
+                cancelLayout();
+                newWrapper().wrapParagraphs(list, 0, list.size(), wrapped);
+                RowIndex old = startOfEachRow;
+                startOfEachRow = wrapped;
+                wrapped = old;
+                layoutValid = true;
+                change.clear();
+                return;
+            }
 
-        System.out.println("");
-        for(Node node : startOfEachRow)
-            System.out.println(node.character);
-        System.out.println("");
+            if(sinceLayout == null)
+                startLayout();
+
+            if(startOfEachRow.size() == 0) {
+                provisionalRows();
+                change.clear();
+                return;
+            }
+        }
+
+        if(change.changed)
+            updateRows(change);
+        change.clear();
+    }
+
+    // Only the paragraph holding the first edited character can wrap differently, and only until a row
+    // starts at the same character it started at before the edit: from there on every row is the same
+    // as in the old layout, shifted by the number of characters added or removed
+    private void updateRows(ChangeRegion edited) {
+        int delta = edited.delta;
+
+        // go back to the start of the paragraph
+        int from = edited.start;
+        while(from > 0 && list.charAt(from - 1) != '\n')
+            from--;
+
+        int firstRow = startOfEachRow.firstRowFrom(from);
+        int oldRow = newWrapper().wrap(list, from, edited.oldEnd + delta, startOfEachRow, firstRow, delta, wrapped);
+        if(oldRow == -1)
+            oldRow = startOfEachRow.size();
 
+        startOfEachRow.replace(firstRow, oldRow, wrapped, delta);
     }
 
-    private void appendWord(int wordLength, List<Node> word)  {
-        if(wordLength == 0)
+    private LineWrapper newWrapper() {
+        return new LineWrapper(metrics, leftMargin, windowWidth - rightMargin, wrapCache);
+    }
+
+    // wrap a snapshot of the whole text on the layout thread
+    private void startLayout() {
+        sinceLayout = list.trackChanges();
+        layoutWorker.layout(list.snapshot(), newWrapper(), layout -> {
+            finishedLayout = layout;
+            render(cursorAtSecondLine);
+        });
+    }
+
+    // take the rows from the layout thread and catch them up with what was typed meanwhile
+    private void installLayout() {
+        LayoutSnapshot layout = finishedLayout;
+        finishedLayout = null;
+
+        if(layout.getMetrics() != metrics || layout.getRightEdge() != windowWidth - rightMargin) {
+            // wrapped for a font or a width that is gone already
+            cancelLayout();
             return;
+        }
+
+        startOfEachRow = layout.toRowIndex();
+        if(sinceLayout.changed)
+            updateRows(sinceLayout);
+        list.stopTracking(sinceLayout);
+        sinceLayout = null;
 
-        if((xPosition + wordLength) <= (windowWidth - rightMargin) || xPosition == leftMargin) {
-            // append the word. No need to add to startOfEachRow list cuz we have done that in the renderHelper function
-            appendWordHelper(word);
-        } else {
-            xPosition = leftMargin;
-            yPosition += fontHeight;
-            startOfEachRow.add(word.get(0));
-            appendWordHelper(word);
+        layoutValid = true;
+        change.clear();
+    }
+
+    private void cancelLayout() {
+        layoutWorker.cancel();
+        if(sinceLayout != null)
+            list.stopTracking(sinceLayout);
+        sinceLayout = null;
+        finishedLayout = null;
+    }
+
+    // Rows to show while the layout thread works on the first layout of a big file: every paragraph
+    // cut into runs of as many characters as would fit if they all were as wide as 'W'. They only keep
+    // the window, the cursor and the scroll bar usable until the real rows replace them
+    private void provisionalRows() {
+        int perRow = Math.max(1, (windowWidth - leftMargin - rightMargin) / Math.max(1, charWidth('W')));
+
+        startOfEachRow.clear();
+        char[] block = new char[64 * 1024];
+        int size = list.size();
+        int inRow = 0;
+        boolean start = true;
+        for(int from = 0; from < size; from += block.length) {
+            int to = Math.min(size, from + block.length);
+            list.getChars(from, to, block, 0);
+
+            for(int i = from; i < to; i++) {
+                if(start || inRow == perRow) {
+                    startOfEachRow.add(i);
+                    inRow = 0;
+                    start = false;
+                }
+                inRow++;
+                if(block[i - from] == '\n')
+                    start = true;
+            }
         }
     }
 
-    private void appendWordHelper(List<Node> word) {
+    // draw the characters of the rows intersecting the window
+    private void drawVisibleRows() {
+        if(font == null)
+            // nothing has been laid out yet
+            return;
 
-        for(Node node : word) {
+        renderer.draw(getFirstVisibleRow(), getLastVisibleRow());
+    }
 
-            Text c = node.character;
-            int length = textWidth(c);
+    private int getFirstVisibleRow() {
+        return Math.max(0, getRowIndex(scrollBar.getValue() - topMargin) - OVERSCAN_ROWS);
+    }
 
-            // modify here to set right margin
-            if(xPosition + length > (windowWidth - rightMargin)) {
-                xPosition = leftMargin;
-                yPosition += fontHeight;
-                startOfEachRow.add(node);
-            }
+    private int getLastVisibleRow() {
+        double bottom = scrollBar.getValue() + windowHeight - topMargin;
+        return Math.min(startOfEachRow.size() - 1, getRowIndex(bottom) + OVERSCAN_ROWS);
+    }
 
-            c.setX(xPosition);
-            c.setY(yPosition);
+    private void debugStartOfEachRow() {
 
-            xPosition += length;
-        }
+        System.out.println("");
+        for(int row = 0; row < startOfEachRow.size(); row++)
+            System.out.println(list.charAt(startOfEachRow.get(row)));
+        System.out.println("");
 
     }
 
     public void setWindowWidth(int width) {
+        if(width != windowWidth) {
+            layoutValid = false;
+            cancelLayout();
+        }
         windowWidth = width;
     }
 
+    int getWindowWidth() {
+        return windowWidth;
+    }
+
+    GlyphMetrics getMetrics() {
+        return metrics;
+    }
+
+    Font getFont() {
+        return font;
+    }
+
+    int getFontHeight() {
+        return fontHeight;
+    }
+
     public void setWindowHeight(int height) {
         windowHeight = height;
     }
@@ -243,13 +478,37 @@ public class RenderEngine {
             return (int)w;
     }
 
+    int charWidth(char c) {
+        return metrics.width(c);
+    }
+
     public int getRowIndex(double y) {
         return (int)(y / fontHeight);
     }
 
-    public Node getFirstNodeOfTheRow(int row) {
+    int getRowY(int row) {
+        return topMargin + row * fontHeight;
+    }
+
+    // the row holding the character at position
+    private int getRowOf(int position) {
+        return startOfEachRow.rowOf(position);
+    }
+
+    // one past the last character of the row
+    int getRowEnd(int row) {
+        return row + 1 < startOfEachRow.size() ? startOfEachRow.get(row + 1) : list.size();
+    }
+
+    // x coordinate of position in row, which may also be the position right after the row's last character
+    private int getX(int row, int position) {
+        return renderer.getOffsets(row)[position - startOfEachRow.get(row)];
+    }
+
+    // -1 if there is no such row
+    public int getFirstCharOfTheRow(int row) {
         if(row >= startOfEachRow.size() || row < 0)
-            return null;
+            return -1;
 
         return startOfEachRow.get(row);
     }
@@ -258,38 +517,43 @@ public class RenderEngine {
         return startOfEachRow.size();
     }
 
-    // search through startNode to endNode.pre
-    //
-    public Node searchAndRenderClosestNodeInARow(Node startNode, Node endNode, double target) {
-        Node iter = startNode;
+    // move the cursor to the position of the row [start, end) closest to target
+    public int searchAndRenderClosestPositionInARow(int start, int end, double target) {
 
-        Node targetNode = iter.pre;
-        int min = Integer.MAX_VALUE;
-        while(iter != endNode && !iter.character.equals("\n")) {
-            int dif = (int)Math.abs(target - iter.character.getX());
-            if(dif < min) {
-                min = dif;
-                targetNode = iter.pre;
-            }
-            iter = iter.next;
-        }
+        int position = getClosestPosition(getRowOf(start), target);
+        list.setCurrentPosition(position);
+        // right after the last character of the row the cursor stays at the end of this row
+        renderCursor(position != end);
 
-        // check the last character in this row
-        iter = iter.pre;
-        if(!iter.character.equals("\n")) {
-            int dif = (int)Math.abs(iter.character.getX() + RenderEngine.textWidth(iter.character) - target);
-            if(dif < min) {
-                targetNode = iter;
-                list.setCurrentNode(targetNode);
-                renderCursor(false);
-                return targetNode;
-            }
+        return position;
+    }
+
+    // The position of row closest to x: a binary search over the x of its positions. Right after the
+    // last character counts too, unless that character is a new line. On a tie the left one wins
+    public int getClosestPosition(int row, double x) {
+        int start = startOfEachRow.get(row);
+        int end = getRowEnd(row);
+        int[] offsets = renderer.getOffsets(row);
+
+        int last = list.charAt(end - 1) == '\n' ? end - 1 - start : end - start;
+        // the first position at or right of x
+        int low = 0;
+        int high = last;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(offsets[mid] < x)
+                low = mid + 1;
+            else
+                high = mid;
         }
 
-        list.setCurrentNode(targetNode);
-        renderCursor(true);
+        if(low > 0 && x - offsets[low - 1] <= offsets[low] - x)
+            low--;
+        // characters with no width share their x with the one after them, take the first of them
+        while(low > 0 && offsets[low - 1] == offsets[low])
+            low--;
 
-        return targetNode;
+        return start + low;
     }
 
     public void changFontSize(boolean larger) {
@@ -298,22 +562,27 @@ public class RenderEngine {
         else
             fontSize = Math.max(4, fontSize - 4);
 
+        metrics = null;
+        layoutValid = false;
+        cancelLayout();
         render(false);
     }
 
     public void moveCursorToStart() {
+        flush();
 
         int row = getRowIndex(cursor.getY());
-        Node start = getFirstNodeOfTheRow(row);
-        if(start == null)
+        int start = getFirstCharOfTheRow(row);
+        if(start == -1)
             return;
 
-        list.setCurrentNode(start.pre);
+        list.setCurrentPosition(start);
         renderCursor(true);
 
     }
 
     public void moveCursorToEnd() {
+        flush();
 
         int row = getRowIndex(cursor.getY());
 
@@ -321,115 +590,183 @@ public class RenderEngine {
             // special case: "\n" at the end of a line
             return;
 
-        Node end;
+        int end;
         if(row == startOfEachRow.size() - 1)
             // special case: at the last line
-            end = list.tail.pre;
+            end = list.size();
         else
-            end = getFirstNodeOfTheRow(row + 1).pre;
+            end = getFirstCharOfTheRow(row + 1);
 
-        if(end.character.getText().equals("\n"))
-            end = end.pre;
+        if(list.charAt(end - 1) == '\n')
+            end--;
 
-        list.setCurrentNode(end);
+        list.setCurrentPosition(end);
         renderCursor(false);
 
     }
 
     public void moveCursorToTop() {
 
-        list.setCurrentNode(list.head);
+        list.setCurrentPosition(0);
         renderCursor(false);
 
     }
 
     public void moveCursorToBottom() {
 
-        list.setCurrentNode(list.tail.pre);
+        list.setCurrentPosition(list.size());
         renderCursor(false);
 
     }
 
-    // select box: node parameter should always be valid
+    public boolean hasSelection() {
+        return boxStart != -1;
+    }
+
     public void removeSelectionBox() {
 
-        if(boxes.size() != 0) {
-            textRoot.getChildren().removeAll(boxes);
-            boxes.clear();
-            textRoot.getChildren().add(cursor.cursor);
-            boxStartNode = null;
-            boxEndNode = null;
+        if(boxStart != -1) {
+            boxStart = -1;
+            boxEnd = -1;
+            selectionDirty = true;
+            schedule();
         }
 
     }
 
-    public void renderSelectionBox(Node start, Node end) {
-
-        textRoot.getChildren().removeAll(boxes);
+    public void renderSelectionBox(int start, int end) {
 
-        boxes.clear();
-
-        if(start == null || end == null)
+        if(start < 0 || end > list.size() || start >= end) {
+            removeSelectionBox();
             return;
+        }
 
-        if(start == end.next)
-            return;
+        boxStart = start;
+        boxEnd = end;
+        selectionDirty = true;
+        schedule();
+    }
 
-        boxStartNode = start;
-        boxEndNode = end;
+    // the boxes for [boxStart, boxEnd) on the visible rows; the cursor is hidden while there is a selection
+    private void drawSelectionBox() {
+
+        int start = boxStart;
+        int end = boxEnd;
+        if(start < 0 || end > list.size() || start >= end) {
+            boxStart = -1;
+            boxEnd = -1;
+            start = -1;
+            end = -1;
+            if(!textRoot.getChildren().contains(cursor.cursor))
+                textRoot.getChildren().add(cursor.cursor);
+        } else
+            textRoot.getChildren().remove(cursor.cursor);
+
+        int firstRow = font == null ? 0 : getFirstVisibleRow();
+        int rows = font == null ? 0 : Math.max(0, getLastVisibleRow() - firstRow + 1);
+        while(boxes.size() < rows) {
+            Rectangle r = new Rectangle(0, 0);
+            r.setFill(Color.LIGHTBLUE);
+            r.setVisible(false);
+            boxes.add(r);
+        }
 
-        int startX = (int)start.character.getX();
-        int startY = (int)start.character.getY();
-        int endX = (int)end.character.getX();
-        int endY = (int)end.character.getY();
+        if(boxesStale || firstRow != boxFirstRow || rows != usedBoxes || shownStart == -1 || start == -1)
+            // every visible row may look different
+            updateBoxes(firstRow, firstRow + rows - 1, start, end);
+        else {
+            // only the rows between the old and the new ends of the selection
+            updateBoxes(getRowOf(Math.min(shownStart, start)), getRowOf(Math.max(shownStart, start)), start, end);
+            updateBoxes(getRowOf(Math.min(shownEnd, end) - 1), getRowOf(Math.max(shownEnd, end) - 1), start, end);
+        }
 
-        int startRow = getRowIndex(startY);
-        int endRow = getRowIndex(endY);
+        if(rows < usedBoxes)
+            selectionRoot.getChildren().remove(rows, usedBoxes);
+        else if(rows > usedBoxes)
+            selectionRoot.getChildren().addAll(boxes.subList(usedBoxes, rows));
+        usedBoxes = rows;
+        boxFirstRow = firstRow;
+        shownStart = start;
+        shownEnd = end;
+        boxesStale = false;
+    }
 
-        // System.out.println("start: " + startRow + " end: " + endRow);
-        if(startRow == endRow) {
-            Rectangle rec;
-            if(!end.character.getText().equals("\n"))
-                rec = new Rectangle(endX + end.character.getLayoutBounds().getWidth() - startX, fontHeight);
-            else
-                rec = new Rectangle(windowWidth - leftMargin - rightMargin, fontHeight);
-            rec.setX(startX);
-            rec.setY(startY);
-            rec.toBack();
-            boxes.add(rec);
-        }else {
-            // draw the box at the first line
-            Rectangle startRec = new Rectangle(windowWidth - rightMargin - startX, fontHeight);
-            startRec.setX(startX);
-            startRec.setY(startY);
-            boxes.add(startRec);
-
-            // draw the middle part of boxes
-            for (int i = startRow + 1; i <= endRow - 1; i++) {
-                Rectangle rec = new Rectangle(windowWidth - leftMargin - rightMargin, fontHeight);
-                rec.setY(fontHeight * i);
-                rec.setX(leftMargin);
-                boxes.add(rec);
+    // give the visible rows in [fromRow, toRow] the part of [start, end) they hold, -1 for no selection
+    private void updateBoxes(int fromRow, int toRow, int start, int end) {
+        if(fromRow > toRow)
+            return;
+        int firstRow = getFirstVisibleRow();
+        fromRow = Math.max(fromRow, firstRow);
+        toRow = Math.min(toRow, getLastVisibleRow());
+
+        int startRow = start == -1 ? -1 : getRowOf(start);
+        int endRow = start == -1 ? -1 : getRowOf(end - 1);
+        // a selected new line takes the rest of its row
+        boolean endsWithNewLine = start != -1 && list.charAt(end - 1) == '\n';
+
+        for(int row = fromRow; row <= toRow; row++) {
+            Rectangle r = boxes.get(row - firstRow);
+            if(start == -1 || row < startRow || row > endRow) {
+                if(r.isVisible())
+                    r.setVisible(false);
+                continue;
             }
 
-            // draw the box at the last line
-            Rectangle endRec;
-            if(!end.character.getText().equals("\n"))
-                endRec = new Rectangle(endX + end.character.getLayoutBounds().getWidth() - leftMargin, fontHeight);
-            else
-                endRec = new Rectangle(windowWidth - leftMargin - rightMargin, fontHeight);
-            endRec.setX(leftMargin);
-            endRec.setY(endY);
-            boxes.add(endRec);
-
+            int left = row == startRow ? getX(startRow, start) : leftMargin;
+            int right = row == endRow && !endsWithNewLine ? getX(endRow, end) : windowWidth - rightMargin;
+            int y = getRowY(row);
+            if(r.getX() != left)
+                r.setX(left);
+            if(r.getY() != y)
+                r.setY(y);
+            if(r.getWidth() != right - left)
+                r.setWidth(right - left);
+            if(r.getHeight() != fontHeight)
+                r.setHeight(fontHeight);
+            if(!r.isVisible())
+                r.setVisible(true);
         }
-        // System.out.println(boxes.size());
-        for(Rectangle r : boxes) {
-            r.setFill(Color.LIGHTBLUE);
-            textRoot.getChildren().add(r);
-            r.toBack();
+    }
+
+    // a box for each visible row of each match that is on them
+    private void drawMatches() {
+        int used = 0;
+        if(matches != null && font != null && startOfEachRow.size() > 0) {
+            int firstRow = getFirstVisibleRow();
+            int lastRow = getLastVisibleRow();
+            int from = startOfEachRow.get(firstRow);
+            int to = getRowEnd(lastRow);
+
+            for(int i = matches.firstEndingAfter(from); i < matches.size() && matches.start(i) < to; i++) {
+                int start = Math.max(matches.start(i), from);
+                int end = Math.min(matches.end(i), to);
+                // a match wrapped over several rows gets a box on each of them
+                for(int row = getRowOf(start); start < end; row++) {
+                    int rowEnd = Math.min(getRowEnd(row), end);
+                    int left = getX(row, start);
+                    Rectangle r = getMatchBox(used++);
+                    r.setX(left);
+                    r.setY(getRowY(row));
+                    r.setWidth(getX(row, rowEnd) - left);
+                    r.setHeight(fontHeight);
+                    start = rowEnd;
+                }
+            }
         }
 
-        textRoot.getChildren().remove(cursor.cursor);
+        if(used < usedMatchBoxes)
+            matchRoot.getChildren().remove(used, usedMatchBoxes);
+        else if(used > usedMatchBoxes)
+            matchRoot.getChildren().addAll(matchBoxes.subList(usedMatchBoxes, used));
+        usedMatchBoxes = used;
+    }
+
+    private Rectangle getMatchBox(int index) {
+        if(index == matchBoxes.size()) {
+            Rectangle r = new Rectangle(0, 0);
+            r.setFill(Color.YELLOW);
+            matchBoxes.add(r);
+        }
+        return matchBoxes.get(index);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package editor;
+
+import java.util.Arrays;
+
+// The first character of every row, kept in an int[] with a gap at the last edited row. Rows after
+// the gap are stored without the shift the edits since then have caused; that shift is kept once in
+// suffixDelta and applied on read. Looking a row up is O(1), finding the row of a character is
+// O(log rows), and replacing the rows of one paragraph costs the rows replaced plus the distance the
+// gap moves, not the number of rows after the edit.
+public class RowIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] starts;
+    private int gapStart;
+    private int gapEnd;
+    private int suffixDelta;
+
+    public RowIndex() {
+        starts = new int[INITIAL_CAPACITY];
+        gapStart = 0;
+        gapEnd = INITIAL_CAPACITY;
+        suffixDelta = 0;
+    }
+
+    // the rows in starts, which the index keeps and edits in place
+    public RowIndex(int[] starts) {
+        this.starts = starts;
+        gapStart = starts.length;
+        gapEnd = starts.length;
+        suffixDelta = 0;
+    }
+
+    public int size() {
+        return starts.length - (gapEnd - gapStart);
+    }
+
+    public int get(int row) {
+        if(row < gapStart)
+            return starts[row];
+        return starts[row + gapEnd - gapStart] + suffixDelta;
+    }
+
+    public void add(int start) {
+        moveGap(size());
+        ensureGap(1);
+        starts[gapStart++] = start;
+    }
+
+    public int[] toArray() {
+        // with the gap at the end every row is stored as it is
+        moveGap(size());
+        return Arrays.copyOf(starts, gapStart);
+    }
+
+    public void clear() {
+        gapStart = 0;
+        gapEnd = starts.length;
+        suffixDelta = 0;
+    }
+
+    // keep only the first size rows
+    public void truncate(int size) {
+        moveGap(size);
+        gapEnd = starts.length;
+    }
+
+    // replace the rows in [from, to) by the rows of replacement, and shift every row from to on by delta
+    public void replace(int from, int to, RowIndex replacement, int delta) {
+        moveGap(to);
+        suffixDelta += delta;
+        gapStart = from;
+
+        int count = replacement.size();
+        ensureGap(count);
+        for(int i = 0; i < count; i++)
+            starts[gapStart++] = replacement.get(i);
+    }
+
+    // the last row starting at or before position, 0 when there is none
+    public int rowOf(int position) {
+        int low = 0;
+        int high = size() - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(get(mid) <= position)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return Math.max(low, 0);
+    }
+
+    // the first row starting at or after position, size() when there is none
+    public int firstRowFrom(int position) {
+        int low = 0;
+        int high = size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(get(mid) < position)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // move the gap so that it starts before row, applying or removing the suffix shift of the rows
+    // that change sides
+    private void moveGap(int row) {
+        if(row < gapStart) {
+            int count = gapStart - row;
+            for(int i = gapStart - 1; i >= row; i--)
+                starts[i + gapEnd - gapStart] = starts[i] - suffixDelta;
+            gapStart -= count;
+            gapEnd -= count;
+        } else if(row > gapStart) {
+            int count = row - gapStart;
+            for(int i = 0; i < count; i++)
+                starts[gapStart + i] = starts[gapEnd + i] + suffixDelta;
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureGap(int needed) {
+        if(gapEnd - gapStart >= needed)
+            return;
+
+        int afterGap = starts.length - gapEnd;
+        int capacity = Math.max(starts.length * 2, size() + needed + INITIAL_CAPACITY);
+
+        int[] bigger = Arrays.copyOf(starts, capacity);
+        System.arraycopy(starts, gapEnd, bigger, capacity - afterGap, afterGap);
+
+        starts = bigger;
+        gapEnd = capacity - afterGap;
+    }
+
+}
@@ -0,0 +1,182 @@
+package editor;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// Searches a snapshot of the document on a background thread and hands the matches to the FX
+// thread a chunk of text at a time, so the first ones show up long before a big file has been read
+// to the end.
+//
+// With more than one core the chunks are searched at the same time on the common ForkJoin pool. Each
+// chunk reads past its end by as much as a match needs, and the search thread merges them in order:
+// where a match of one chunk runs into the next, the matches of the next are checked against a single
+// pass from the end of that match, so the result is exactly what one pass over the text finds.
+public class SearchWorker {
+
+    // the matches of this many characters of text go to the FX thread together
+    private static final int CHUNK_CHARS = 1024 * 1024;
+
+    private static class Task {
+        volatile boolean cancelled;
+    }
+
+    private static class ChunkTask extends RecursiveTask<MatchIndex> {
+        private static final long serialVersionUID = 1L;
+
+        final TextSnapshot text;
+        final Finder finder;
+        final int from;
+        final int to;
+        final Task search;
+
+        ChunkTask(TextSnapshot text, Finder finder, int from, int to, Task search) {
+            this.text = text;
+            this.finder = finder;
+            this.from = from;
+            this.to = to;
+            this.search = search;
+        }
+
+        @Override
+        protected MatchIndex compute() {
+            MatchIndex found = new MatchIndex();
+            if(!search.cancelled)
+                finder.find(text, from, to, found);
+            return found;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    // the last search started, only touched on the FX thread
+    private Task running;
+
+    public SearchWorker() {
+        executor = Workers.singleThread("search", true);
+    }
+
+    // Look for finder in snapshot. found gets the matches of every chunk in order, and done the
+    // nanoseconds the whole search took, both on the FX thread and only until cancel() or another
+    // search() is called
+    public void search(TextSnapshot snapshot, Finder finder, Consumer<MatchIndex> found, LongConsumer done) {
+        cancel();
+        Task search = new Task();
+        running = search;
+        Finder copy = finder.copy();
+
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            boolean finished;
+            if(!Workers.worthSplitting(snapshot.length(), CHUNK_CHARS))
+                finished = searchInOrder(snapshot, copy, search, found);
+            else
+                finished = searchChunks(snapshot, copy, search, found);
+            if(!finished)
+                return;
+
+            long time = System.nanoTime() - start;
+            Platform.runLater(() -> {
+                if(!search.cancelled)
+                    done.accept(time);
+            });
+        });
+    }
+
+    public void cancel() {
+        if(running != null)
+            running.cancelled = true;
+        running = null;
+    }
+
+    // the cores the chunks of a big text are searched on
+    public static int getParallelism() {
+        return ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    // one chunk after the other on the search thread, false if the search was cancelled
+    private static boolean searchInOrder(TextSnapshot text, Finder finder, Task search, Consumer<MatchIndex> found) {
+        int length = text.length();
+        int from = 0;
+        while(from < length) {
+            if(search.cancelled)
+                return false;
+
+            int to = (int)Math.min(length, (long)from + CHUNK_CHARS);
+            MatchIndex chunk = new MatchIndex();
+            from = finder.find(text, from, to, chunk);
+            deliver(chunk, search, found);
+        }
+        return true;
+    }
+
+    // every chunk at the same time, merged in order as they finish, false if the search was cancelled
+    private static boolean searchChunks(TextSnapshot text, Finder finder, Task search, Consumer<MatchIndex> found) {
+        int length = text.length();
+        List<ChunkTask> tasks = new ArrayList<>();
+        for(int from = 0; from < length; from += CHUNK_CHARS) {
+            ChunkTask task = new ChunkTask(text, finder.copy(), from, (int)Math.min(length, (long)from + CHUNK_CHARS), search);
+            tasks.add(task);
+            ForkJoinPool.commonPool().execute(task);
+        }
+
+        // where a single pass would go on from after the chunks merged so far
+        int resume = 0;
+        for(ChunkTask task : tasks) {
+            if(search.cancelled) {
+                for(ChunkTask t : tasks)
+                    t.cancel(false);
+                return false;
+            }
+
+            MatchIndex chunk = new MatchIndex();
+            resume = merge(text, finder, task.join(), task.from, task.to, resume, chunk);
+            deliver(chunk, search, found);
+        }
+        return true;
+    }
+
+    // Add to out the matches a single pass finds in [from, to) when it gets there at resume, given the
+    // ones found by searching from from. Returns where the pass goes on from after the chunk.
+    private static int merge(TextSnapshot text, Finder finder, MatchIndex found, int from, int to, int resume, MatchIndex out) {
+        // a match of an earlier chunk covers this one
+        if(resume >= to)
+            return resume;
+
+        int i = found.next(resume);
+        if(resume > from) {
+            // The chunk was searched from its start, but a match of the chunk before it ends at resume.
+            // Search from resume to the next match of the chunk: when nothing found runs past it, the
+            // single pass stops there too and agrees with the chunk from then on
+            while(true) {
+                int bound = i < found.size() ? found.start(i) : to;
+                int next = finder.find(text, resume, bound, out);
+                if(i == found.size())
+                    // resume can already be past to, and find gives back to then
+                    return Math.max(next, resume);
+                if(next == bound)
+                    break;
+                resume = next;
+                i = found.next(resume);
+            }
+        }
+
+        for(; i < found.size(); i++)
+            out.add(found.start(i), found.end(i));
+        return found.size() == 0 ? Math.max(to, resume) : Math.max(to, found.end(found.size() - 1));
+    }
+
+    private static void deliver(MatchIndex chunk, Task search, Consumer<MatchIndex> found) {
+        if(chunk.size() > 0)
+            Platform.runLater(() -> {
+                if(!search.cancelled)
+                    found.accept(chunk);
+            });
+    }
+
+}
@@ -3,8 +3,12 @@ package editor;
 public class TestList {
 
     public static void main(String[] args) {
-        FastLinkedList list = new FastLinkedList();
+        test(new PieceTable("hello"));
+        test(new GapBuffer("hello"));
+    }
 
+    private static void test(TextBuffer list) {
+        list.setCurrentPosition(5);
         list.addChar('a');
         list.addChar('b');
         list.addChar('c');
@@ -12,8 +16,18 @@ public class TestList {
 
         list.deleteChar();
 
-        list.debug();
+        list.setCurrentPosition(2);
+        list.addChar('x');
+
+        list.setCurrentPosition(list.size());
+        list.addChars(" pasted");
 
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < list.size(); i++)
+            sb.append(list.charAt(i));
+        System.out.println(sb);
+
+        list.debug();
     }
 
 }
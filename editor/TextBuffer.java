@@ -0,0 +1,202 @@
+package editor;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// The storage behind the document. Subclasses only know how to insert, delete and read characters at
+// an offset; the cursor semantics FastLinkedList used to provide live here so every storage shares them.
+//
+// currentPosition is the number of characters before the cursor, so 0 is the old head sentinel and
+// size() is tail.pre
+public abstract class TextBuffer implements CharSequence {
+
+    int currentPosition;
+
+    // every region handed out by trackChanges(), each one grown by every edit until it is cleared
+    private final List<ChangeRegion> regions = new ArrayList<>();
+
+    private EditListener listener;
+    // made the first time someone asks for a line
+    private LineIndex lines;
+
+    protected abstract void insertChar(int position, char c);
+
+    protected abstract void insertChars(int position, CharSequence chars);
+
+    protected abstract void deleteChars(int position, int length);
+
+    public abstract char charAt(int position);
+
+    // copy [start, end) of the text into dst
+    public abstract void getChars(int start, int end, char[] dst, int dstBegin);
+
+    public abstract int size();
+
+    // an immutable view of the current text that stays valid whatever is edited afterwards
+    public abstract TextSnapshot snapshot();
+
+    public abstract void debug();
+
+    public void insert(int position, char c) {
+        insertChar(position, c);
+        markChanged(position, position, 1);
+        if(listener != null)
+            listener.inserted(position, c);
+    }
+
+    // insert a whole run at once: one splice in the storage and one change for the layout and listener
+    public void insert(int position, CharSequence chars) {
+        int length = chars.length();
+        if(length == 0)
+            return;
+
+        insertChars(position, chars);
+        markChanged(position, position, length);
+        if(listener != null)
+            listener.inserted(position, chars);
+    }
+
+    public void delete(int position, int length) {
+        if(length <= 0)
+            return;
+
+        deleteChars(position, length);
+        markChanged(position, position + length, -length);
+        if(listener != null)
+            listener.deleted(position, length);
+    }
+
+    // remove [start, end) in one delete and hand it back, so it can be put back as one unit
+    public String deleteRange(int start, int end) {
+        String removed = getText(start, end);
+        delete(start, end - start);
+        return removed;
+    }
+
+    public String getText(int start, int end) {
+        if(start < 0 || end > size() || start > end)
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") out of " + size());
+
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    public void setEditListener(EditListener listener) {
+        this.listener = listener;
+    }
+
+    // a region that collects every edit made from now on
+    public ChangeRegion trackChanges() {
+        ChangeRegion region = new ChangeRegion();
+        regions.add(region);
+        return region;
+    }
+
+    public void stopTracking(ChangeRegion region) {
+        regions.remove(region);
+    }
+
+    // where the lines start, kept up to date with the edits
+    public LineIndex getLines() {
+        if(lines == null)
+            lines = new LineIndex(this);
+        return lines;
+    }
+
+    private void markChanged(int from, int to, int delta) {
+        for(int i = 0; i < regions.size(); i++)
+            regions.get(i).mark(from, to, delta);
+    }
+
+    @Override
+    public int length() {
+        return size();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return getText(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return getText(0, size());
+    }
+
+    // add the character after the cursor and move the cursor past it
+    public void addChar(char c) {
+        insert(currentPosition, c);
+        currentPosition++;
+    }
+
+    // add chars after the cursor and move the cursor past them
+    public void addChars(CharSequence chars) {
+        insert(currentPosition, chars);
+        currentPosition += chars.length();
+    }
+
+    // delete the character right before the cursor
+    public void deleteChar() {
+        if(size() == 0 || currentPosition == 0)
+            return;
+
+        delete(currentPosition - 1, 1);
+        currentPosition--;
+    }
+
+    // move the position of current cursor
+    // false indicates this function does nothing
+    public boolean moveLeft() {
+        if(size() == 0 || currentPosition == 0)
+            return false;
+
+        currentPosition--;
+        return true;
+    }
+
+    // move the position of current cursor
+    // false indicates this function does nothing
+    public boolean moveRight() {
+        if(size() == 0 || currentPosition == size())
+            return false;
+
+        currentPosition++;
+        return true;
+    }
+
+    public void setCurrentPosition(int position) {
+        currentPosition = position;
+    }
+
+    // copy count characters of source starting at from into dst, in bulk for the sequences that allow it
+    protected static void copyChars(CharSequence source, int from, int count, char[] dst, int dstBegin) {
+        if(source instanceof CharBuffer) {
+            CharBuffer buffer = ((CharBuffer) source).duplicate();
+            buffer.position(buffer.position() + from);
+            buffer.get(dst, dstBegin, count);
+        } else if(source instanceof String) {
+            ((String) source).getChars(from, from + count, dst, dstBegin);
+        } else if(source instanceof StringBuilder) {
+            ((StringBuilder) source).getChars(from, from + count, dst, dstBegin);
+        } else if(source instanceof TextSnapshot) {
+            ((TextSnapshot) source).getChars(from, from + count, dst, dstBegin);
+        } else if(source instanceof TextBuffer) {
+            ((TextBuffer) source).getChars(from, from + count, dst, dstBegin);
+        } else {
+            for(int i = 0; i < count; i++)
+                dst[dstBegin + i] = source.charAt(from + i);
+        }
+    }
+
+    // pick the storage named by the editor.storage system property, the piece table by default
+    public static TextBuffer create(CharSequence original) {
+        String storage = System.getProperty("editor.storage", "piece");
+        if(storage.equals("gap"))
+            return new GapBuffer(original);
+
+        return new PieceTable(original);
+    }
+
+}
@@ -0,0 +1,90 @@
+package editor;
+
+import javafx.scene.Node;
+
+import java.util.Arrays;
+
+// Puts the characters of the rows around the window on screen. RenderEngine works out the rows and
+// which of them are visible; a renderer only decides what nodes show them. The cursor above it and the
+// selection boxes behind it are separate nodes, so moving them never makes a renderer draw again. They
+// are put where getOffsets() says the characters are.
+public abstract class TextRenderer {
+
+    // one String per ASCII character, so that drawing a glyph doesn't allocate one
+    private static final String[] ASCII = new String[128];
+    static {
+        for(char c = 0; c < ASCII.length; c++)
+            ASCII[c] = String.valueOf(c);
+    }
+
+    protected final RenderEngine engine;
+    protected final TextBuffer list;
+    // The offsets of the rows asked for since the rows last changed, so that dragging the mouse or
+    // holding an arrow key doesn't measure the same rows over and over. Row r goes in slot r % CACHED_ROWS
+    private static final int CACHED_ROWS = 128;
+    private final int[] cachedRow = new int[CACHED_ROWS];
+    private final int[][] cachedOffsets = new int[CACHED_ROWS][];
+
+    protected TextRenderer(RenderEngine engine, TextBuffer list) {
+        this.engine = engine;
+        this.list = list;
+        Arrays.fill(cachedRow, -1);
+    }
+
+    // what goes into textRoot, between the selection and the cursor
+    public abstract Node getNode();
+
+    // show the rows in [firstRow, lastRow] and nothing else
+    public abstract void draw(int firstRow, int lastRow);
+
+    // the rows moved or their characters changed, whatever was kept about them may be stale
+    public void rowsChanged() {
+        Arrays.fill(cachedRow, -1);
+    }
+
+    // Where the positions of a row are on screen: element i is the x of the position
+    // getFirstCharOfTheRow(row) + i, up to the x right after the last character of the row, so it is
+    // sorted. The array may be longer than the row and it is only good until the next call.
+    public int[] getOffsets(int row) {
+        int slot = row % CACHED_ROWS;
+        if(cachedRow[slot] == row)
+            return cachedOffsets[slot];
+
+        int start = engine.getFirstCharOfTheRow(row);
+        int end = engine.getRowEnd(row);
+        int[] offsets = cachedOffsets[slot];
+        if(offsets == null || offsets.length < end - start + 1)
+            offsets = new int[Math.max(end - start + 1, 64)];
+        measure(start, end, offsets);
+
+        cachedRow[slot] = row;
+        cachedOffsets[slot] = offsets;
+        return offsets;
+    }
+
+    // the x of every position in [start, end], adding up the widths the rows were wrapped with
+    protected void measure(int start, int end, int[] offsets) {
+        int x = engine.leftMargin;
+        for(int i = start; i < end; i++) {
+            offsets[i - start] = x;
+            x += engine.charWidth(list.charAt(i));
+        }
+        offsets[end - start] = x;
+    }
+
+    protected static String glyphText(char c) {
+        return c < ASCII.length ? ASCII[c] : String.valueOf(c);
+    }
+
+    // pick the renderer named by the editor.renderer system property, a Text per glyph by default
+    public static TextRenderer create(RenderEngine engine, TextBuffer list) {
+        String renderer = System.getProperty("editor.renderer", "glyphs");
+        if(renderer.equals("canvas"))
+            return new CanvasRenderer(engine, list);
+        if(renderer.equals("lines"))
+            return new LineRenderer(engine, list);
+
+        return new GlyphRenderer(engine, list);
+    }
+
+}
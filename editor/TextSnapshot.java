@@ -0,0 +1,10 @@
+package editor;
+
+// The document as it was when the snapshot was taken on the FX thread. Later edits never show up in
+// it, so it can be read from any thread while the user keeps typing.
+public interface TextSnapshot extends CharSequence {
+
+    // copy the characters in [start, end) to dst, starting at dstBegin
+    void getChars(int start, int end, char[] dst, int dstBegin);
+
+}
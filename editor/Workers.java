@@ -0,0 +1,35 @@
+package editor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// What the background workers have in common: the single thread each of them runs its jobs on, and
+// when a text is big enough to be cut into chunks for the cores of the common ForkJoin pool.
+//
+// The layout and search workers run over snapshots and only their newest job matters: starting one
+// cancels the one still running, and a cancelled job hands nothing back to the FX thread. The file
+// saver is the exception, every save it is given is written, in order.
+public class Workers {
+
+    private Workers() {
+    }
+
+    // one thread running the jobs in the order they come, which goes away after a second without any
+    public static ThreadPoolExecutor singleThread(String name, boolean daemon) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(daemon);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // with a single core, or a text that fits in one chunk, the chunks would only add work
+    public static boolean worthSplitting(int length, int chunkChars) {
+        return ForkJoinPool.getCommonPoolParallelism() >= 2 && length > chunkChars;
+    }
+
+}
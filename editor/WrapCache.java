@@ -0,0 +1,76 @@
+package editor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Where the rows of a paragraph start, relative to the paragraph, for the widths and fonts it has been
+// wrapped at. A paragraph is known by a 64 bit hash of its characters and its length, which makes the
+// hash its version: editing one paragraph doesn't stop the others from being found. Going back to a
+// width or a font size used before finds the rows here instead of measuring every character again.
+// The least recently used paragraphs are dropped once the entries add up to more than the budget.
+public class WrapCache {
+
+    // what an entry costs besides its int[]: the key, the map node and the array header, roughly
+    private static final int ENTRY_BYTES = 96;
+
+    private final long budget;
+    private long used;
+    private final LinkedHashMap<Key, int[]> entries;
+
+    private static class Key {
+        final long hash;
+        final int length;
+        final int rightEdge;
+        // one instance per (font name, font size)
+        final GlyphMetrics metrics;
+
+        Key(long hash, int length, int rightEdge, GlyphMetrics metrics) {
+            this.hash = hash;
+            this.length = length;
+            this.rightEdge = rightEdge;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && length == k.length && rightEdge == k.rightEdge && metrics == k.metrics;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(hash ^ (hash >>> 32)) * 31 + rightEdge * 17 + System.identityHashCode(metrics);
+        }
+    }
+
+    public WrapCache(long budget) {
+        this.budget = budget;
+        // in access order, so the first entry is the least recently used one
+        entries = new LinkedHashMap<>(1024, 0.75f, true);
+    }
+
+    // the rows of a paragraph wrapped before at this width and font, null if there are none
+    public synchronized int[] get(long hash, int length, int rightEdge, GlyphMetrics metrics) {
+        return entries.get(new Key(hash, length, rightEdge, metrics));
+    }
+
+    public synchronized void put(long hash, int length, int rightEdge, GlyphMetrics metrics, int[] rowStarts) {
+        int[] old = entries.put(new Key(hash, length, rightEdge, metrics), rowStarts);
+        if(old != null)
+            used -= cost(old);
+        used += cost(rowStarts);
+
+        Iterator<int[]> eldest = entries.values().iterator();
+        while(used > budget && entries.size() > 1) {
+            used -= cost(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long cost(int[] rowStarts) {
+        return ENTRY_BYTES + 4L * rowStarts.length;
+    }
+
+}